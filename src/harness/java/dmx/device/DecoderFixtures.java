@@ -0,0 +1,337 @@
+package dmx.device;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/* Feeds fixed byte streams through the input decoders and checks the frames they
+ * decode, without a serial port. The Enttec streams are written out the way a
+ * widget sends them: start byte, label, length, payload, end byte. The raw streams
+ * are chunks of the DMX line, each with the time it was read, including frames
+ * that arrive in packets a few milliseconds apart, as USB adapters deliver them.
+ *
+ * Every stream is decoded once in a single read, and then once for every position
+ * it can be split at, in two reads. Each decoded frame is compared with the
+ * expected start code and universe, and the changes recorded for it with the
+ * difference to the previous frame. The process exits with status 1 if any check
+ * fails.
+ *
+ * Run through gradle:
+ *   gradle decoderCheck */
+public class DecoderFixtures {
+
+	private int checks = 0;
+	private final List<String> failures = new ArrayList<String>();
+
+	public static void main(String[] args) {
+		DecoderFixtures fixtures = new DecoderFixtures();
+		fixtures.enttec();
+		fixtures.raw();
+		System.out.println("Checks run:     " + fixtures.checks);
+		System.out.println("Checks failed:  " + fixtures.failures.size());
+		for (String failure: fixtures.failures) {
+			System.out.println("  " + failure);
+		}
+		System.exit(fixtures.failures.isEmpty() ? 0 : 1);
+	}
+
+	/* A frame as the decoder completed it: its start code, a copy of the universe and
+	 * the channels recorded as changed. */
+	private static class Frame {
+		final int startCode;
+		final int[] universe;
+		final int[] changed;
+
+		Frame(int startCode, int[] universe, int[] changed) {
+			this.startCode = startCode;
+			this.universe = universe;
+			this.changed = changed;
+		}
+	}
+
+	/* Binds a decoder the way SerialConn does, and records every completed frame. */
+	private static class Capture implements InputDecoder.Listener {
+		final InputDecoder decoder;
+		final int[] universe = new int[512];
+		final FrameChanges changes = new FrameChanges();
+		final List<Frame> frames = new ArrayList<Frame>();
+
+		Capture(String protocol) {
+			decoder = InputDecoder.create(protocol, RawDecoder.DEFAULT_BREAK_GAP);
+			decoder.bind(universe, changes, this);
+		}
+
+		public void frameCompleted(int startCode) {
+			int[] changed = Arrays.copyOf(changes.channels, changes.count);
+			Arrays.sort(changed);
+			frames.add(new Frame(startCode, universe.clone(), changed));
+			changes.clear();
+		}
+	}
+
+	private void enttec() {
+		int[] first = levels(0, 10, 1, 20, 2, 30, 3, 40);
+
+		// "send DMX" with the start code and four channels
+		byte[] send = hex("7e 06 05 00 00 0a 14 1e 28 e7");
+		check("label 6", InputDecoder.ENTTEC_PRO, send, frame(0, first));
+
+		// "received DMX" with a status byte before the start code
+		byte[] received = hex("7e 05 06 00 00 00 0a 14 1e 28 e7");
+		check("label 5", InputDecoder.ENTTEC_PRO_RECEIVED, received, frame(0, first));
+
+		// Each decoder skips the other's messages
+		check("label 5 on label 6", InputDecoder.ENTTEC_PRO, received);
+		check("label 6 on label 5", InputDecoder.ENTTEC_PRO_RECEIVED, send);
+
+		// Line noise before the first message, and a serial number reply (label 10)
+		// whose payload holds start, end and label bytes
+		check("other labels", InputDecoder.ENTTEC_PRO,
+				concat(hex("00 ff e7 7e 0a 04 00 7e e7 06 05 e7"), send, hex("7e 03 02 00 06 7e e7")),
+				frame(0, first));
+
+		// An RDM frame (start code 0xcc) is reported, but doesn't touch the channels
+		check("non-null start code", InputDecoder.ENTTEC_PRO,
+				concat(hex("7e 06 03 00 cc 01 02 e7"), hex("7e 06 02 00 00 05 e7")),
+				frame(0xcc, levels()), frame(0, levels(0, 5)));
+		check("non-null start code, label 5", InputDecoder.ENTTEC_PRO_RECEIVED,
+				concat(hex("7e 05 04 00 00 cc 01 02 e7"), hex("7e 05 03 00 00 00 05 e7")),
+				frame(0xcc, levels()), frame(0, levels(0, 5)));
+
+		// A full universe, then one with every channel changed
+		int[] full = new int[512];
+		int[] next = new int[512];
+		for (int i = 0; i < 512; i++) {
+			full[i] = (i * 7 + 1) & 0xff;
+			next[i] = (full[i] + 1) & 0xff;
+		}
+		check("full universe", InputDecoder.ENTTEC_PRO,
+				concat(enttecFrame(EnttecDecoder.LABEL_SEND_DMX, 0, full), enttecFrame(EnttecDecoder.LABEL_SEND_DMX, 0, next)),
+				frame(0, full), frame(0, next));
+
+		// A payload longer than 513 bytes: the extra channels are dropped, and the
+		// next message is decoded as usual
+		int[] oversized = new int[600];
+		for (int i = 0; i < oversized.length; i++) {
+			oversized[i] = full[i % 512];
+		}
+		check("length over 513", InputDecoder.ENTTEC_PRO,
+				concat(enttecFrame(EnttecDecoder.LABEL_SEND_DMX, 0, oversized), send),
+				frame(0, full), frame(0, overlay(full, first)));
+		check("length over 513, label 5", InputDecoder.ENTTEC_PRO_RECEIVED,
+				concat(enttecFrame(EnttecDecoder.LABEL_RECEIVED_DMX, 0, oversized), received),
+				frame(0, full), frame(0, overlay(full, first)));
+	}
+
+	private void raw() {
+		int[] full = new int[512];
+		int[] next = new int[512];
+		for (int i = 0; i < 512; i++) {
+			full[i] = (i * 13 + 5) & 0xff;
+			next[i] = i & 0xff;
+		}
+
+		// Two full frames, each after a break. A frame completes with its last channel.
+		checkRaw("full frames", new RawStream().read(100, rawFrame(0, full)).read(123, rawFrame(0, next)),
+				frame(0, full), frame(0, next));
+
+		// Frames sent back to back without a pause are counted off by length
+		checkRaw("back to back", new RawStream().read(100, concat(rawFrame(0, full), rawFrame(0, next))),
+				frame(0, full), frame(0, next));
+
+		// A short frame completes at the next pause
+		byte[] shortFrame = hex("00 0a 14 1e 28");
+		checkRaw("short frames", new RawStream().read(100, shortFrame).read(130, hex("00 01")).read(160, hex("00")),
+				frame(0, levels(0, 10, 1, 20, 2, 30, 3, 40)), frame(0, levels(0, 1, 1, 20, 2, 30, 3, 40)));
+
+		// A text packet (start code 0x17) is reported, but doesn't touch the channels
+		checkRaw("non-null start code", new RawStream().read(100, hex("17 41 42 43")).read(130, shortFrame).read(160, hex("00")),
+				frame(0x17, levels()), frame(0, levels(0, 10, 1, 20, 2, 30, 3, 40)));
+
+		// Reads less than the break gap apart are the same frame
+		checkRaw("no pause", new RawStream().read(100, hex("00 0a 14")).read(110, hex("1e 28")).read(140, hex("00")),
+				frame(0, levels(0, 10, 1, 20, 2, 30, 3, 40)));
+
+		// A USB adapter delivers each frame in packets a few milliseconds apart. Here
+		// every packet starts with a 0, which looks like a null start code.
+		int[] packeted = full.clone();
+		for (int k = 62; k < 513; k += 62) {
+			packeted[k - 1] = 0;
+		}
+		checkRaw("packets", new RawStream().packets(100, 3, 62, rawFrame(0, packeted)).packets(150, 3, 62, rawFrame(0, next)),
+				frame(0, packeted), frame(0, next));
+
+		// A short frame in packets completes at the pause after its last packet
+		int[] shortLevels = new int[512];
+		for (int i = 0; i < 100; i++) {
+			shortLevels[i] = i + 1;
+		}
+		checkRaw("short frame in packets", new RawStream().packets(100, 3, 62, rawFrame(0, Arrays.copyOf(shortLevels, 100))).read(150, hex("00")),
+				frame(0, shortLevels));
+	}
+
+	/* Chunks of a raw line, each with the time it was read. */
+	private static class RawStream {
+		final List<byte[]> chunks = new ArrayList<byte[]>();
+		final List<Long> times = new ArrayList<Long>();
+
+		RawStream read(long time, byte[] chunk) {
+			chunks.add(chunk);
+			times.add(time);
+			return this;
+		}
+
+		/* Read data in packets of size bytes, spacing milliseconds apart from start. */
+		RawStream packets(long start, long spacing, int size, byte[] data) {
+			for (int off = 0; off < data.length; off += size) {
+				read(start, Arrays.copyOfRange(data, off, Math.min(data.length, off + size)));
+				start += spacing;
+			}
+			return this;
+		}
+	}
+
+	/* Decode an Enttec stream whole and split at every position. */
+	private void check(String name, String protocol, byte[] stream, Frame... expected) {
+		for (int split = 0; split < stream.length; split++) {
+			Capture capture = new Capture(protocol);
+			if (split > 0) capture.decoder.decode(stream, 0, split, 0);
+			capture.decoder.decode(stream, split, stream.length - split, 0);
+			compare(name + (split > 0 ? " (split at " + split + ")" : ""), capture.frames, expected);
+		}
+	}
+
+	/* Decode raw chunks whole and with each one split at every position. The two parts
+	 * of a split chunk are read at the same time. */
+	private void checkRaw(String name, RawStream stream, Frame... expected) {
+		List<byte[]> chunks = stream.chunks;
+		Capture whole = new Capture(InputDecoder.RAW);
+		for (int c = 0; c < chunks.size(); c++) {
+			whole.decoder.decode(chunks.get(c), 0, chunks.get(c).length, stream.times.get(c));
+		}
+		compare(name, whole.frames, expected);
+		for (int s = 0; s < chunks.size(); s++) {
+			for (int split = 1; split < chunks.get(s).length; split++) {
+				Capture capture = new Capture(InputDecoder.RAW);
+				for (int c = 0; c < chunks.size(); c++) {
+					byte[] chunk = chunks.get(c);
+					long time = stream.times.get(c);
+					if (c == s) {
+						capture.decoder.decode(chunk, 0, split, time);
+						capture.decoder.decode(chunk, split, chunk.length - split, time);
+					} else {
+						capture.decoder.decode(chunk, 0, chunk.length, time);
+					}
+				}
+				compare(name + " (chunk " + s + " split at " + split + ")", capture.frames, expected);
+			}
+		}
+	}
+
+	private void compare(String name, List<Frame> actual, Frame[] expected) {
+		checks += 1;
+		if (actual.size() != expected.length) {
+			failures.add(name + ": " + actual.size() + " frames, expected " + expected.length);
+			return;
+		}
+		int[] previous = new int[512];
+		for (int f = 0; f < expected.length; f++) {
+			Frame a = actual.get(f);
+			Frame e = expected[f];
+			if (a.startCode != e.startCode) {
+				failures.add(name + ": frame " + f + " has start code " + a.startCode + ", expected " + e.startCode);
+				return;
+			}
+			for (int i = 0; i < 512; i++) {
+				if (a.universe[i] != e.universe[i]) {
+					failures.add(name + ": frame " + f + " has channel " + i + " at " + a.universe[i] + ", expected " + e.universe[i]);
+					return;
+				}
+			}
+			int[] changed = changedChannels(previous, e.universe);
+			if (!Arrays.equals(a.changed, changed)) {
+				failures.add(name + ": frame " + f + " recorded " + a.changed.length + " changes, expected " + changed.length);
+				return;
+			}
+			previous = e.universe;
+		}
+	}
+
+	private static int[] changedChannels(int[] before, int[] after) {
+		int[] changed = new int[512];
+		int n = 0;
+		for (int i = 0; i < 512; i++) {
+			if (before[i] != after[i]) changed[n++] = i;
+		}
+		return Arrays.copyOf(changed, n);
+	}
+
+	private static Frame frame(int startCode, int[] universe) {
+		return new Frame(startCode, universe, null);
+	}
+
+	/* A universe with the given channel, value pairs set and all other channels at 0. */
+	private static int[] levels(int... pairs) {
+		int[] universe = new int[512];
+		for (int i = 0; i < pairs.length; i += 2) {
+			universe[pairs[i]] = pairs[i + 1];
+		}
+		return universe;
+	}
+
+	/* The universe base with the non-zero channels of top written over it. */
+	private static int[] overlay(int[] base, int[] top) {
+		int[] universe = base.clone();
+		for (int i = 0; i < 512; i++) {
+			if (top[i] != 0) universe[i] = top[i];
+		}
+		return universe;
+	}
+
+	private static byte[] enttecFrame(int label, int startCode, int[] channels) {
+		int status = label == EnttecDecoder.LABEL_RECEIVED_DMX ? 1 : 0;
+		int length = status + 1 + channels.length;
+		byte[] msg = new byte[length + 5];
+		msg[0] = (byte) EnttecDecoder.DMX_START;
+		msg[1] = (byte) label;
+		msg[2] = (byte) (length & 0xff);
+		msg[3] = (byte) (length >> 8);
+		msg[4 + status] = (byte) startCode;
+		for (int i = 0; i < channels.length; i++) {
+			msg[5 + status + i] = (byte) channels[i];
+		}
+		msg[msg.length - 1] = (byte) EnttecDecoder.DMX_END;
+		return msg;
+	}
+
+	private static byte[] rawFrame(int startCode, int[] channels) {
+		byte[] frame = new byte[1 + channels.length];
+		frame[0] = (byte) startCode;
+		for (int i = 0; i < channels.length; i++) {
+			frame[1 + i] = (byte) channels[i];
+		}
+		return frame;
+	}
+
+	private static byte[] hex(String s) {
+		String[] parts = s.trim().split("\\s+");
+		byte[] bytes = new byte[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			bytes[i] = (byte) Integer.parseInt(parts[i], 16);
+		}
+		return bytes;
+	}
+
+	private static byte[] concat(byte[]... arrays) {
+		int length = 0;
+		for (byte[] a: arrays) length += a.length;
+		byte[] result = new byte[length];
+		int pos = 0;
+		for (byte[] a: arrays) {
+			System.arraycopy(a, 0, result, pos, a.length);
+			pos += a.length;
+		}
+		return result;
+	}
+
+}
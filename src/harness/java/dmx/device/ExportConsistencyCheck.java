@@ -0,0 +1,85 @@
+package dmx.device;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Checks that readers of a shared memory export never see a torn frame. A writer
+ * thread writes frames in which all 512 channels hold the same value, as fast as it
+ * can, while reader threads keep reading through SharedUniverseReader and check
+ * that every snapshot is uniform and that sequence numbers never go backwards.
+ * Finally it retires the export and checks that a reader that still has the file
+ * open is told so, and that the file is gone.
+ *
+ * Run through gradle, optionally with the number of readers and seconds:
+ *   gradle exportCheck -Dexec.args="readers=4 seconds=10" */
+public class ExportConsistencyCheck {
+
+	public static void main(String[] args) throws Exception {
+		int readers = 2;
+		int seconds = 5;
+		for (String arg: args) {
+			if (arg.startsWith("readers=")) readers = Integer.parseInt(arg.substring(8));
+			else if (arg.startsWith("seconds=")) seconds = Integer.parseInt(arg.substring(8));
+		}
+
+		final File file = new File(SharedUniverse.DIRECTORY, "consistency-check.universe");
+		final SharedUniverseWriter writer = new SharedUniverseWriter(file);
+		final long deadline = System.currentTimeMillis() + seconds * 1000L;
+		final AtomicLong written = new AtomicLong();
+		final AtomicLong read = new AtomicLong();
+		final AtomicLong torn = new AtomicLong();
+
+		Thread writerThread = new Thread(new Runnable() {
+			public void run() {
+				int[] values = new int[512];
+				int v = 0;
+				while (System.currentTimeMillis() < deadline) {
+					v = (v + 1) & 0xff;
+					Arrays.fill(values, v);
+					writer.write(values, System.currentTimeMillis());
+					written.incrementAndGet();
+				}
+			}
+		}, "export-writer");
+
+		List<Thread> readerThreads = new ArrayList<Thread>();
+		for (int r = 0; r < readers; r++) {
+			final SharedUniverseReader reader = new SharedUniverseReader(file);
+			readerThreads.add(new Thread(new Runnable() {
+				public void run() {
+					byte[] frame = new byte[512];
+					long last = -1;
+					while (System.currentTimeMillis() < deadline) {
+						long seq = reader.read(frame);
+						read.incrementAndGet();
+						boolean ok = seq >= last;
+						for (int i = 1; i < frame.length && ok; i++) {
+							ok = frame[i] == frame[0];
+						}
+						if (!ok) torn.incrementAndGet();
+						last = seq;
+					}
+				}
+			}, "export-reader-" + r));
+		}
+
+		writerThread.start();
+		for (Thread t: readerThreads) t.start();
+		writerThread.join();
+		for (Thread t: readerThreads) t.join();
+
+		SharedUniverseReader late = new SharedUniverseReader(file);
+		writer.retire();
+		boolean retired = !late.isLive() && late.read(new byte[512]) == -1 && !file.exists();
+
+		System.out.println("Frames written:  " + written.get());
+		System.out.println("Snapshots read:  " + read.get());
+		System.out.println("Torn snapshots:  " + torn.get());
+		System.out.println("Retired export:  " + (retired ? "seen by readers" : "NOT seen by readers"));
+		System.exit(torn.get() == 0 && retired ? 0 : 1);
+	}
+
+}
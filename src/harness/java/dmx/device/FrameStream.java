@@ -0,0 +1,88 @@
+package dmx.device;
+
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/* An in-memory stand-in for a serial port's input stream. The load harness writes
+ * generated frames into it and the connection reads them with the same calls it
+ * uses on a real port. Like the serial library's stream, read() returns -1 when no
+ * data has arrived, unless the stream is made blocking, in which case reads wait
+ * for data. If the reader falls behind and the buffer is full, whole frames are
+ * dropped and counted. */
+class FrameStream extends InputStream {
+
+	private final byte[] ring;
+	private final boolean blocking;
+	private int head = 0;
+	private int size = 0;
+	private long dropped = 0;
+
+	FrameStream(int capacity, boolean blocking) {
+		this.ring = new byte[capacity];
+		this.blocking = blocking;
+	}
+	
+	boolean isBlocking() {
+		return blocking;
+	}
+
+	/* Appends a frame, or drops it if it doesn't fit. Returns whether it was written. */
+	synchronized boolean write(byte[] frame, int len) {
+		if (size + len > ring.length) {
+			dropped += 1;
+			return false;
+		}
+		int tail = (head + size) % ring.length;
+		int first = Math.min(len, ring.length - tail);
+		System.arraycopy(frame, 0, ring, tail, first);
+		System.arraycopy(frame, first, ring, 0, len - first);
+		size += len;
+		notifyAll();
+		return true;
+	}
+
+	synchronized long getDropped() {
+		return dropped;
+	}
+
+	@Override
+	public synchronized int available() {
+		return size;
+	}
+
+	@Override
+	public synchronized int read() throws InterruptedIOException {
+		if (!awaitData()) return -1;
+		int b = ring[head] & 0xff;
+		head = (head + 1) % ring.length;
+		size -= 1;
+		return b;
+	}
+
+	@Override
+	public synchronized int read(byte[] buf, int off, int len) throws InterruptedIOException {
+		if (len == 0) return 0;
+		if (!awaitData()) return -1;
+		int n = Math.min(len, size);
+		int first = Math.min(n, ring.length - head);
+		System.arraycopy(ring, head, buf, off, first);
+		System.arraycopy(ring, 0, buf, off + first, n - first);
+		head = (head + n) % ring.length;
+		size -= n;
+		return n;
+	}
+
+	/* Returns whether there is data to read, waiting for it if the stream is blocking. */
+	private boolean awaitData() throws InterruptedIOException {
+		while (size == 0) {
+			if (!blocking) return false;
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,425 @@
+package dmx.device;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.node.actions.ActionResult;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.util.json.JsonObject;
+
+/* Soak and load test for the link, runnable on any machine without DMX hardware or a
+ * broker. It builds a synthetic tree of connections, devices and components and
+ * starts it through SerialLink, exactly like a restored nodes.json. The nodes have no
+ * link behind them, so they stand in for the broker: published values just land on
+ * the nodes, where the harness checks them.
+ *
+ * Each connection reads Enttec frames from a FrameStream that a generator fills at
+ * a fixed rate. Channels 0 and 1 of every frame carry a sequence number; once the
+ * connection has handled a frame, its end-to-end latency is looked up by sequence
+ * number. After a warmup, latency percentiles, CPU, heap and GC are measured over
+ * the run and printed as a capacity report.
+ *
+ * The "model" option selects how the connections read: "pool" (the shared scheduled
+ * executor), "dedicated" (a platform reader thread per connection) or "virtual" (a
+ * virtual reader thread per connection, on Java 21 or later). Running the same
+ * load once per model compares them. The streams behave like the serial library's,
+ * returning -1 while empty, so reader threads poll them as they poll a real port;
+ * "stream=blocking" makes reads wait for data instead.
+ *
+ * Finally, "bulkEdit" component edits (1000 by default) are made through the
+ * components' edit actions, cycling through the components, and timed. The nodes
+ * have no link behind them, so the SDK's serializer doesn't run: this is the time
+ * the link needs to apply the edits. The serializer saves nodes.json on its own
+ * schedule once the tree has changed, however many edits changed it.
+ *
+ * Options are given as key=value arguments, e.g. through gradle:
+ *   gradle loadTest -Dexec.args="connections=20 devices=16 components=8 rate=44 seconds=60 model=dedicated" */
+public class LoadHarness {
+
+	private final int connections;
+	private final int devices;
+	private final int components;
+	private final int rate;
+	private final int seconds;
+	private final int warmup;
+	private final double changeRatio;
+	private final String model;
+	private final boolean blockingStream;
+	private final int bulkEdit;
+
+	private final List<Feed> feeds = new ArrayList<Feed>();
+	private final Random random = new Random(42);
+
+	// End-to-end latencies of the measured frames, in nanoseconds
+	private long[] latencies = new long[1 << 16];
+	private int latencyCount = 0;
+	private boolean measuring = false;
+
+	LoadHarness(Map<String, String> opts) {
+		connections = intOpt(opts, "connections", 4);
+		devices = intOpt(opts, "devices", 10);
+		components = intOpt(opts, "components", 8);
+		rate = intOpt(opts, "rate", 44);
+		seconds = intOpt(opts, "seconds", 30);
+		warmup = intOpt(opts, "warmup", 5);
+		changeRatio = opts.containsKey("changeRatio") ? Double.parseDouble(opts.get("changeRatio")) : 0.1;
+		model = readerModel(opts.get("model"));
+		blockingStream = "blocking".equals(opts.get("stream"));
+		bulkEdit = intOpt(opts, "bulkEdit", 1000);
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> opts = new HashMap<String, String>();
+		for (String arg: args) {
+			int eq = arg.indexOf('=');
+			if (eq > 0) opts.put(arg.substring(0, eq), arg.substring(eq + 1));
+		}
+		new LoadHarness(opts).run();
+		System.exit(0);
+	}
+
+	private static String readerModel(String opt) {
+		if (opt == null || opt.equals("pool")) return ReaderThreads.SHARED_POOL;
+		if (opt.equals("dedicated")) return ReaderThreads.DEDICATED;
+		if (opt.equals("virtual")) return ReaderThreads.VIRTUAL;
+		throw new IllegalArgumentException("Unknown model " + opt + ", expected pool, dedicated or virtual");
+	}
+
+	/* One generated input stream and the connection reading it. */
+	private class Feed {
+		final SerialConn conn;
+		final FrameStream stream = new FrameStream(64 * 1024, blockingStream);
+		final int[] levels = new int[512];
+		final long[] sendTimes = new long[1 << 16];
+		final byte[] frame = new byte[5 + 513 + 1];
+		int seq = 0;
+		volatile long sent = 0;
+		volatile long handled = 0;
+
+		Feed(SerialConn conn) {
+			this.conn = conn;
+		}
+
+		/* Build the next Enttec "send DMX" frame, changing a share of the channels. */
+		void send() {
+			seq = (seq + 1) & 0xffff;
+			levels[0] = seq >> 8;
+			levels[1] = seq & 0xff;
+			for (int i = 2; i < levels.length; i++) {
+				if (random.nextDouble() < changeRatio) levels[i] = random.nextInt(256);
+			}
+			frame[0] = (byte) EnttecDecoder.DMX_START;
+			frame[1] = (byte) EnttecDecoder.LABEL_SEND_DMX;
+			frame[2] = (byte) (513 & 0xff);
+			frame[3] = (byte) (513 >> 8);
+			frame[4] = 0;
+			for (int i = 0; i < levels.length; i++) {
+				frame[5 + i] = (byte) levels[i];
+			}
+			frame[frame.length - 1] = (byte) EnttecDecoder.DMX_END;
+			sendTimes[seq] = System.nanoTime();
+			if (stream.write(frame, frame.length)) sent += 1;
+		}
+
+		/* Called by the connection once it has handled a frame. */
+		void handled() {
+			long now = System.nanoTime();
+			int s = (conn.channelValues[0] << 8) | conn.channelValues[1];
+			handled += 1;
+			record(now - sendTimes[s]);
+		}
+	}
+
+	private synchronized void record(long latency) {
+		if (!measuring) return;
+		if (latencyCount == latencies.length) latencies = Arrays.copyOf(latencies, latencies.length * 2);
+		latencies[latencyCount++] = latency;
+	}
+
+	private synchronized void startMeasuring() {
+		latencyCount = 0;
+		measuring = true;
+	}
+
+	private synchronized long[] stopMeasuring() {
+		measuring = false;
+		long[] result = Arrays.copyOf(latencies, latencyCount);
+		Arrays.sort(result);
+		return result;
+	}
+
+	void run() throws InterruptedException {
+		System.out.println("Building " + connections + " connections x " + devices + " devices x " +
+				components + " components");
+		long buildStart = System.nanoTime();
+		Node root = new Node("harness", null, null);
+		buildTree(root);
+		SerialLink link = SerialLink.start(root);
+		for (final SerialConn conn: link.conns) {
+			final Feed feed = new Feed(conn);
+			feeds.add(feed);
+			conn.frameObserver = new Runnable() {
+				public void run() {
+					feed.handled();
+				}
+			};
+			conn.attachInput(feed.stream, feed.stream.isBlocking());
+		}
+		long buildMillis = (System.nanoTime() - buildStart) / 1000000;
+
+		ScheduledExecutorService generator = Executors.newSingleThreadScheduledExecutor();
+		generator.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				for (Feed feed: feeds) {
+					feed.send();
+				}
+			}
+		}, 0, 1000000000L / rate, TimeUnit.NANOSECONDS);
+
+		Thread.sleep(warmup * 1000L);
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		long cpuStart = totalCpuTime(threads);
+		long gcCountStart = gcCount();
+		long gcTimeStart = gcTime();
+		resetPeakHeap();
+		long sentStart = totalSent();
+		long handledStart = totalHandled();
+		threads.resetPeakThreadCount();
+		long wallStart = System.nanoTime();
+		startMeasuring();
+
+		Thread.sleep(seconds * 1000L);
+
+		long[] sorted = stopMeasuring();
+		long wall = System.nanoTime() - wallStart;
+		long cpu = totalCpuTime(threads) - cpuStart;
+		long gcCount = gcCount() - gcCountStart;
+		long gcTime = gcTime() - gcTimeStart;
+		long sent = totalSent() - sentStart;
+		long handled = totalHandled() - handledStart;
+		generator.shutdownNow();
+		Thread.sleep(1000);
+
+		int processors = Runtime.getRuntime().availableProcessors();
+		Runtime rt = Runtime.getRuntime();
+		long dropped = 0;
+		for (Feed feed: feeds) dropped += feed.stream.getDropped();
+		int[] check = checkLinearValues();
+		long[] edit = bulkEdit();
+
+		System.out.println();
+		System.out.println("=== DMX link capacity report ===");
+		System.out.println("Connections:          " + connections);
+		System.out.println("Devices:              " + connections * devices);
+		System.out.println("Components:           " + connections * devices * components);
+		String modelNote = model.equals(ReaderThreads.VIRTUAL) && !ReaderThreads.isVirtualSupported() ? " (not supported, platform threads used)" : "";
+		System.out.println("Reader model:         " + model + modelNote + (blockingStream ? ", blocking streams" : ""));
+		System.out.println("Frame rate:           " + rate + " Hz per connection, " + (int) (changeRatio * 100) + "% of channels changing");
+		System.out.println("Tree build time:      " + buildMillis + " ms");
+		System.out.println("Measured for:         " + seconds + " s after " + warmup + " s warmup");
+		System.out.println("Frames sent:          " + sent + " (" + dropped + " dropped, reader behind)");
+		System.out.println("Frames handled:       " + handled + String.format(" (%.1f per second)", handled * 1e9 / wall));
+		if (sorted.length > 0) {
+			System.out.println(String.format("Latency (ms):         p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f",
+					percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99),
+					percentile(sorted, 0.999), sorted[sorted.length - 1] / 1e6));
+		}
+		System.out.println(String.format("CPU:                  %.1f%% of %d cores", cpu * 100.0 / wall / processors, processors));
+		System.out.println("Platform threads:     " + threads.getThreadCount() + ", peak " + threads.getPeakThreadCount());
+		System.out.println("Heap used:            " + (rt.totalMemory() - rt.freeMemory()) / (1024 * 1024) + " MB, peak " +
+				peakHeap() / (1024 * 1024) + " MB, max " + rt.maxMemory() / (1024 * 1024) + " MB");
+		System.out.println(String.format("GC:                   %d collections, %d ms (%.2f%% of wall time)",
+				gcCount, gcTime, gcTime * 1e6 * 100 / wall));
+		System.out.println("Linear values checked: " + check[0] + ", mismatched: " + check[1]);
+		if (edit[0] > 0) {
+			System.out.println(String.format("Bulk edit:            %d component edits in %.1f ms (%.1f us each), %d attribute writes",
+					edit[0], edit[1] / 1e6, edit[1] / 1e3 / edit[0], edit[2]));
+		}
+	}
+
+	/* Create the nodes for the synthetic tree, with the attributes a saved tree would have. */
+	private void buildTree(Node root) {
+		int perDevice = components * 4;
+		int span = 510 - perDevice;
+		for (int c = 0; c < connections; c++) {
+			Node cnode = root.createChild("conn" + c).build();
+			cnode.setAttribute("Serial Port", new Value("HARNESS-" + c));
+			cnode.setAttribute("Baud Rate", new Value(250000));
+			cnode.setAttribute("Data Bits", new Value(8));
+			cnode.setAttribute("Stop Bits", new Value(2));
+			cnode.setAttribute("Parity", new Value(0));
+			cnode.setAttribute("Protocol", new Value(InputDecoder.ENTTEC_PRO));
+			cnode.setAttribute("Break Gap", new Value(RawDecoder.DEFAULT_BREAK_GAP));
+			cnode.setAttribute("History Seconds", new Value(0));
+			cnode.setAttribute("Shared Memory Export", new Value(false));
+			cnode.setAttribute("Reader Thread", new Value(model));
+			for (int d = 0; d < devices; d++) {
+				Node dnode = cnode.createChild("dev" + d).build();
+				dnode.setAttribute("Base Address", new Value(2 + (span > 0 ? (d * perDevice) % span : 0)));
+				for (int k = 0; k < components; k++) {
+					buildComponent(dnode.createChild("comp" + k).build(), k, k * 4);
+				}
+			}
+		}
+	}
+
+	/* Cycle through the component types, each using up to four channels from offset. */
+	private static void buildComponent(Node node, int k, int offset) {
+		switch (k % 4) {
+		case 0:
+			node.setAttribute("Component Type", new Value(LinearComponent.TYPE));
+			node.setAttribute("Channel Offset", new Value(offset));
+			break;
+		case 1:
+			node.setAttribute("Component Type", new Value(RgbComponent.TYPE));
+			node.setAttribute("Red Channel Offset", new Value(offset));
+			node.setAttribute("Green Channel Offset", new Value(offset + 1));
+			node.setAttribute("Blue Channel Offset", new Value(offset + 2));
+			break;
+		case 2:
+			node.setAttribute("Component Type", new Value(MultistateComponent.TYPE));
+			node.setAttribute("Channel Offset", new Value(offset));
+			node.setAttribute("Value Mappings", new Value("{\"Off\": [0, 63], \"Low\": [64, 127], \"Mid\": [128, 191], \"High\": [192, 255]}"));
+			break;
+		default:
+			node.setAttribute("Component Type", new Value(MultichannelComponent.TYPE));
+			node.setAttribute("Format", new Value(ChannelDecoder.FORMAT_16BIT));
+			node.setAttribute("Channel Offsets", new Value(offset + ", " + (offset + 1)));
+			break;
+		}
+	}
+
+	/* Compare the published value of every linear component with the last frame of
+	 * its connection. Returns the number of components checked and the number that differ. */
+	private int[] checkLinearValues() {
+		int checked = 0;
+		int mismatched = 0;
+		for (Feed feed: feeds) {
+			int[] frame = feed.conn.getLastFrame();
+			for (DmxDevice device: feed.conn.devices) {
+				for (DmxComponent comp: device.components) {
+					if (!(comp instanceof LinearComponent) || comp.node.getValue() == null) continue;
+					int offset = comp.node.getAttribute("Channel Offset").getNumber().intValue();
+					checked += 1;
+					if (comp.node.getValue().getNumber().intValue() != frame[device.baseAddress + offset]) mismatched += 1;
+				}
+			}
+		}
+		return new int[] {checked, mismatched};
+	}
+
+	/* Apply bulkEdit edits to the components by invoking their edit actions, the way
+	 * the broker does. Each edit passes all of the component's current attributes,
+	 * with its deadband changed. Returns the number of edits, the nanoseconds they
+	 * took and the number of attributes they wrote. */
+	private long[] bulkEdit() {
+		List<DmxComponent> comps = new ArrayList<DmxComponent>();
+		for (Feed feed: feeds) {
+			for (DmxDevice device: feed.conn.devices) {
+				comps.addAll(device.components);
+			}
+		}
+		if (comps.isEmpty() || bulkEdit <= 0) return new long[] {0, 0, 0};
+		List<ActionResult> edits = new ArrayList<ActionResult>(bulkEdit);
+		for (int i = 0; i < bulkEdit; i++) {
+			DmxComponent comp = comps.get(i % comps.size());
+			JsonObject params = new JsonObject();
+			for (Map.Entry<String, Value> attr: comp.node.getAttributes().entrySet()) {
+				Value v = attr.getValue();
+				params.put(attr.getKey(), v.getNumber() != null ? v.getNumber() : v.getBool() != null ? v.getBool() : v.getString());
+			}
+			params.put("Deadband", (i / comps.size()) % 2 == 0 ? 1 : 0);
+			JsonObject in = new JsonObject();
+			in.put("params", params);
+			edits.add(new ActionResult(comp.node.getChild("edit"), in));
+		}
+		
+		// Only the actions are timed, not the counting of attribute writes. An
+		// unchanged attribute keeps its Value, so a new Value means a write.
+		long writes = 0;
+		long elapsed = 0;
+		for (ActionResult edit: edits) {
+			Node node = edit.getNode().getParent();
+			Map<String, Value> before = new HashMap<String, Value>(node.getAttributes());
+			long start = System.nanoTime();
+			edit.getNode().getAction().invoke(edit);
+			elapsed += System.nanoTime() - start;
+			for (Map.Entry<String, Value> attr: node.getAttributes().entrySet()) {
+				if (before.get(attr.getKey()) != attr.getValue()) writes += 1;
+			}
+		}
+		return new long[] {bulkEdit, elapsed, writes};
+	}
+
+	private long totalSent() {
+		long n = 0;
+		for (Feed feed: feeds) n += feed.sent;
+		return n;
+	}
+
+	private long totalHandled() {
+		long n = 0;
+		for (Feed feed: feeds) n += feed.handled;
+		return n;
+	}
+
+	private static double percentile(long[] sorted, double p) {
+		int i = (int) Math.min(sorted.length - 1, Math.round(p * (sorted.length - 1)));
+		return sorted[i] / 1e6;
+	}
+
+	private static long totalCpuTime(ThreadMXBean threads) {
+		long total = 0;
+		for (long id: threads.getAllThreadIds()) {
+			long t = threads.getThreadCpuTime(id);
+			if (t > 0) total += t;
+		}
+		return total;
+	}
+
+	private static long gcCount() {
+		long n = 0;
+		for (GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()) n += Math.max(0, gc.getCollectionCount());
+		return n;
+	}
+
+	private static long gcTime() {
+		long n = 0;
+		for (GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()) n += Math.max(0, gc.getCollectionTime());
+		return n;
+	}
+
+	private static void resetPeakHeap() {
+		for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+		}
+	}
+
+	private static long peakHeap() {
+		long n = 0;
+		for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) n += pool.getPeakUsage().getUsed();
+		}
+		return n;
+	}
+
+	private static int intOpt(Map<String, String> opts, String key, int defaultValue) {
+		String val = opts.get(key);
+		return val != null ? Integer.parseInt(val) : defaultValue;
+	}
+
+}
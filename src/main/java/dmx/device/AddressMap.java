@@ -0,0 +1,183 @@
+package dmx.device;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/* Tracks which channels of a universe are used by which devices. Each device's
+ * footprint is a 512-bit mask. The map keeps, per channel, the number of devices
+ * using it, and a mask of the channels used at all, so free blocks are found by
+ * scanning 8 words rather than 512 channels.
+ *
+ * Devices update their footprint whenever their base address, channel count or
+ * components change, so the map is always current and nothing is recomputed for
+ * the universe as a whole. */
+class AddressMap {
+	
+	static final int CHANNELS = 512;
+	private static final int WORDS = CHANNELS / 64;
+	
+	private final Map<DmxDevice, long[]> footprints = new HashMap<DmxDevice, long[]>();
+	private final int[] users = new int[CHANNELS];
+	private final long[] used = new long[WORDS];
+	
+	/* Returns a new footprint covering channels from to to (inclusive), clipped to the universe. */
+	static long[] range(int from, int to) {
+		long[] mask = new long[WORDS];
+		for (int ch = Math.max(from, 0); ch <= Math.min(to, CHANNELS - 1); ch++) {
+			mask[ch >> 6] |= 1L << ch;
+		}
+		return mask;
+	}
+	
+	/* Adds a channel to a footprint, ignoring channels outside the universe. */
+	static void add(long[] mask, int ch) {
+		if (ch >= 0 && ch < CHANNELS) mask[ch >> 6] |= 1L << ch;
+	}
+	
+	/* Replace the channels used by a device. */
+	synchronized void claim(DmxDevice device, long[] footprint) {
+		release(device);
+		footprints.put(device, footprint);
+		forEachChannel(footprint, 1);
+	}
+	
+	/* Forget the channels used by a device, e.g. because it was removed. */
+	synchronized void release(DmxDevice device) {
+		long[] old = footprints.remove(device);
+		if (old != null) forEachChannel(old, -1);
+	}
+	
+	private void forEachChannel(long[] mask, int delta) {
+		for (int w = 0; w < WORDS; w++) {
+			long bits = mask[w];
+			while (bits != 0) {
+				int ch = (w << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				users[ch] += delta;
+				if (users[ch] == 0) used[w] &= ~(1L << ch);
+				else used[w] |= 1L << ch;
+			}
+		}
+	}
+	
+	/* Returns the first channel of the lowest block of count free channels, or -1 if
+	 * there is none. Skips whole runs of used and free channels at a time. */
+	synchronized int findFree(int count) {
+		if (count <= 0 || count > CHANNELS) return -1;
+		int start = nextClear(0);
+		while (start >= 0 && start + count <= CHANNELS) {
+			int end = nextSet(start);
+			if (end < 0) end = CHANNELS;
+			if (end - start >= count) return start;
+			start = nextClear(end);
+		}
+		return -1;
+	}
+	
+	private int nextSet(int from) {
+		if (from >= CHANNELS) return -1;
+		int w = from >> 6;
+		long bits = used[w] & (-1L << from);
+		while (true) {
+			if (bits != 0) return (w << 6) + Long.numberOfTrailingZeros(bits);
+			if (++w == WORDS) return -1;
+			bits = used[w];
+		}
+	}
+	
+	private int nextClear(int from) {
+		if (from >= CHANNELS) return -1;
+		int w = from >> 6;
+		long bits = ~used[w] & (-1L << from);
+		while (true) {
+			if (bits != 0) return (w << 6) + Long.numberOfTrailingZeros(bits);
+			if (++w == WORDS) return -1;
+			bits = ~used[w];
+		}
+	}
+	
+	/* Returns a description of the other devices that share channels with the given
+	 * one, such as "Dimmer 2 (channels 5-7)", or null if there are none. */
+	synchronized String describeOverlaps(DmxDevice device) {
+		long[] mine = footprints.get(device);
+		if (mine == null) return null;
+		StringBuilder sb = null;
+		for (Map.Entry<DmxDevice, long[]> entry: footprints.entrySet()) {
+			if (entry.getKey() == device) continue;
+			long[] shared = new long[WORDS];
+			boolean any = false;
+			for (int w = 0; w < WORDS; w++) {
+				shared[w] = mine[w] & entry.getValue()[w];
+				any |= shared[w] != 0;
+			}
+			if (!any) continue;
+			if (sb == null) sb = new StringBuilder("Overlaps ");
+			else sb.append(", ");
+			sb.append(entry.getKey().getName()).append(" (channels ").append(formatChannels(shared)).append(')');
+		}
+		return sb != null ? sb.toString() : null;
+	}
+	
+	/* Returns one row per block of consecutive channels used by more than one device:
+	 * the channels, and the names of the devices using them. */
+	synchronized List<String[]> conflicts() {
+		List<String[]> rows = new ArrayList<String[]>();
+		String lastDevices = null;
+		int first = -1;
+		int last = -1;
+		for (int ch = 0; ch < CHANNELS; ch++) {
+			if (users[ch] < 2) continue;
+			String devices = devicesUsing(ch);
+			if (devices.equals(lastDevices) && ch == last + 1) {
+				last = ch;
+				continue;
+			}
+			if (lastDevices != null) rows.add(new String[] {formatRange(first, last), lastDevices});
+			lastDevices = devices;
+			first = ch;
+			last = ch;
+		}
+		if (lastDevices != null) rows.add(new String[] {formatRange(first, last), lastDevices});
+		return rows;
+	}
+	
+	private String devicesUsing(int ch) {
+		List<String> names = new ArrayList<String>();
+		for (Map.Entry<DmxDevice, long[]> entry: footprints.entrySet()) {
+			if ((entry.getValue()[ch >> 6] & (1L << ch)) != 0) names.add(entry.getKey().getName());
+		}
+		Collections.sort(names);
+		StringBuilder sb = new StringBuilder();
+		for (String name: names) {
+			if (sb.length() > 0) sb.append(", ");
+			sb.append(name);
+		}
+		return sb.toString();
+	}
+	
+	/* Formats the channels of a mask as ranges, e.g. "5-7, 9". */
+	static String formatChannels(long[] mask) {
+		StringBuilder sb = new StringBuilder();
+		int ch = 0;
+		while (ch < CHANNELS) {
+			if ((mask[ch >> 6] & (1L << ch)) == 0) {
+				ch++;
+				continue;
+			}
+			int end = ch;
+			while (end + 1 < CHANNELS && (mask[(end + 1) >> 6] & (1L << (end + 1))) != 0) end++;
+			if (sb.length() > 0) sb.append(", ");
+			sb.append(formatRange(ch, end));
+			ch = end + 1;
+		}
+		return sb.toString();
+	}
+	
+	private static String formatRange(int first, int last) {
+		return first == last ? String.valueOf(first) : first + "-" + last;
+	}
+
+}
@@ -0,0 +1,90 @@
+package dmx.device;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dsa.iot.dslink.methods.StreamState;
+import org.dsa.iot.dslink.node.actions.Action;
+import org.dsa.iot.dslink.node.actions.ActionResult;
+import org.dsa.iot.dslink.node.actions.Parameter;
+import org.dsa.iot.dslink.node.actions.ResultType;
+import org.dsa.iot.dslink.node.actions.table.Row;
+import org.dsa.iot.dslink.node.actions.table.Table;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueType;
+import org.dsa.iot.dslink.util.handler.Handler;
+
+/* One open "watch changes" stream. For every completed frame, the connection passes
+ * the channels that changed; those in my channel range that changed by at least my
+ * minimum delta are sent to the requester as one batch of rows. The stream stays
+ * open until the requester closes it or the connection (or device) is removed. */
+class ChangeWatcher {
+	
+	private final SerialConn conn;
+	
+	// The device the stream was opened on, or null if it was opened on the connection
+	final DmxDevice device;
+	private final Table table;
+	private final int start;
+	private final int end;
+	private final int minDelta;
+	
+	private ChangeWatcher(SerialConn conn, DmxDevice device, Table table, int start, int end, int minDelta) {
+		this.conn = conn;
+		this.device = device;
+		this.table = table;
+		this.start = start;
+		this.end = end;
+		this.minDelta = minDelta;
+	}
+	
+	/* Add the result columns and stream type shared by all watch actions. */
+	static void setResults(Action act) {
+		act.addResult(new Parameter("Timestamp", ValueType.TIME));
+		act.addResult(new Parameter("Channel", ValueType.NUMBER));
+		act.addResult(new Parameter("Old Value", ValueType.NUMBER));
+		act.addResult(new Parameter("New Value", ValueType.NUMBER));
+		act.setResultType(ResultType.STREAM);
+	}
+	
+	/* Open a stream of the changes to channels start to end (inclusive) of the
+	 * connection, and keep it registered until the requester closes it. */
+	static void open(final SerialConn conn, DmxDevice device, ActionResult event, int start, int end, int minDelta) {
+		Table table = event.getTable();
+		table.setMode(Table.Mode.APPEND);
+		final ChangeWatcher watcher = new ChangeWatcher(conn, device, table, Math.max(start, 0), Math.min(end, 511), Math.max(minDelta, 1));
+		event.setCloseHandler(new Handler<Void>() {
+			public void handle(Void event) {
+				conn.watchers.remove(watcher);
+			}
+		});
+		event.setStreamState(StreamState.OPEN);
+		conn.watchers.add(watcher);
+	}
+	
+	/* Called by the connection's reader for every completed frame. */
+	void frameCompleted(int[] values, FrameChanges changes, long now) {
+		List<Row> batch = null;
+		Value time = null;
+		for (int i = 0; i < changes.count; i++) {
+			int ch = changes.channels[i];
+			if (ch < start || ch > end) continue;
+			int old = changes.oldValues[i];
+			if (Math.abs(values[ch] - old) < minDelta) continue;
+			if (batch == null) {
+				batch = new ArrayList<Row>();
+				time = new Value(ChannelHistory.formatTime(now));
+			}
+			batch.add(Row.make(time, new Value(ch), new Value(old), new Value(values[ch])));
+		}
+		// One update per frame, however many channels changed
+		if (batch != null) table.addBatchRows(batch);
+	}
+	
+	/* End the stream from this side, e.g. because the connection is removed. */
+	void close() {
+		conn.watchers.remove(this);
+		table.close();
+	}
+
+}
@@ -0,0 +1,195 @@
+package dmx.device;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueType;
+
+/* A decode plan for a component that spans several channels. The plan (which
+ * channels to read and how to combine them) is compiled once, when the component
+ * is created or edited, into one of the specialized subclasses below. Per frame,
+ * decode() is just a few array reads and some integer math, producing a packed key;
+ * the key is only turned into a Value when the component is going to publish it. */
+abstract class ChannelDecoder {
+
+	static final String FORMAT_16BIT = "16-bit";
+	static final String FORMAT_RGBW = "RGBW";
+	static final String FORMAT_RGBA = "RGBA";
+	static final String FORMAT_HSV = "RGB to HSV";
+
+	static final List<String> FORMATS = Arrays.asList(FORMAT_16BIT, FORMAT_RGBW, FORMAT_RGBA, FORMAT_HSV);
+
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	// A key is made of this many lanes of laneBits bits each, one per decoded input,
+	// so filters can be applied per input without knowing the format.
+	final int lanes;
+	final int laneBits;
+
+	ChannelDecoder(int lanes, int laneBits) {
+		this.lanes = lanes;
+		this.laneBits = laneBits;
+	}
+
+	/* Returns a key that packs every input of this decoder. Two frames decode to the
+	 * same value exactly when they produce the same key. */
+	abstract long decode(int[] values, int base);
+
+	/* Converts a key returned by decode() into the value to publish. */
+	abstract Value toValue(long key);
+
+	abstract ValueType getValueType();
+
+	/* Compiles a decode plan for the given format and channel offsets from base.
+	 * Throws an IllegalArgumentException if the format is unknown, the wrong number of
+	 * offsets is given, or a channel falls outside the universe. */
+	static ChannelDecoder compile(String format, int base, int[] offsets) {
+		for (int offset: offsets) {
+			if (offset < 0) throw new IllegalArgumentException("Negative channel offset: " + offset);
+			if (base + offset >= 512) throw new IllegalArgumentException("Channel " + (base + offset) + " is outside the universe");
+		}
+		if (FORMAT_16BIT.equals(format)) {
+			checkCount(format, offsets, 2);
+			return new Fine16(offsets[0], offsets[1]);
+		} else if (FORMAT_RGBW.equals(format) || FORMAT_RGBA.equals(format)) {
+			checkCount(format, offsets, 4);
+			return new Hex4(offsets[0], offsets[1], offsets[2], offsets[3]);
+		} else if (FORMAT_HSV.equals(format)) {
+			checkCount(format, offsets, 3);
+			return new Hsv(offsets[0], offsets[1], offsets[2]);
+		}
+		throw new IllegalArgumentException("Unknown format: " + format);
+	}
+
+	/* Parses a comma-separated list of channel offsets, e.g. "0, 1, 2". */
+	static int[] parseOffsets(String str) {
+		String[] parts = str.split(",");
+		int[] offsets = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			offsets[i] = Integer.parseInt(parts[i].trim());
+		}
+		return offsets;
+	}
+
+	private static void checkCount(String format, int[] offsets, int count) {
+		if (offsets.length != count) {
+			throw new IllegalArgumentException(format + " needs " + count + " channel offsets, got " + offsets.length);
+		}
+	}
+
+	static void appendHex(StringBuilder sb, int b) {
+		sb.append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+	}
+
+	/* A 16-bit value split across a coarse (high byte) and a fine (low byte) channel. */
+	private static final class Fine16 extends ChannelDecoder {
+		private final int coarse;
+		private final int fine;
+
+		Fine16(int coarse, int fine) {
+			super(1, 16);
+			this.coarse = coarse;
+			this.fine = fine;
+		}
+
+		@Override
+		long decode(int[] values, int base) {
+			return (values[base + coarse] << 8) | values[base + fine];
+		}
+
+		@Override
+		Value toValue(long key) {
+			return new Value((int) key);
+		}
+
+		@Override
+		ValueType getValueType() {
+			return ValueType.NUMBER;
+		}
+	}
+
+	/* Four 8-bit channels published as a hex color, e.g. RGBW or RGBA as "#RRGGBBWW". */
+	private static final class Hex4 extends ChannelDecoder {
+		private final int c0;
+		private final int c1;
+		private final int c2;
+		private final int c3;
+
+		Hex4(int c0, int c1, int c2, int c3) {
+			super(4, 8);
+			this.c0 = c0;
+			this.c1 = c1;
+			this.c2 = c2;
+			this.c3 = c3;
+		}
+
+		@Override
+		long decode(int[] values, int base) {
+			return ((long) values[base + c0] << 24) | (values[base + c1] << 16) |
+					(values[base + c2] << 8) | values[base + c3];
+		}
+
+		@Override
+		Value toValue(long key) {
+			StringBuilder sb = new StringBuilder(9).append('#');
+			appendHex(sb, (int) (key >> 24));
+			appendHex(sb, (int) (key >> 16));
+			appendHex(sb, (int) (key >> 8));
+			appendHex(sb, (int) key);
+			return new Value(sb.toString());
+		}
+
+		@Override
+		ValueType getValueType() {
+			return ValueType.STRING;
+		}
+	}
+
+	/* Three RGB channels converted to HSV, published as "hsv(H, S%, V%)", with
+	 * hue in degrees and saturation and value in percent. The conversion only
+	 * runs when the RGB inputs change. */
+	private static final class Hsv extends ChannelDecoder {
+		private final int r;
+		private final int g;
+		private final int b;
+
+		Hsv(int r, int g, int b) {
+			super(3, 8);
+			this.r = r;
+			this.g = g;
+			this.b = b;
+		}
+
+		@Override
+		long decode(int[] values, int base) {
+			return (values[base + r] << 16) | (values[base + g] << 8) | values[base + b];
+		}
+
+		@Override
+		Value toValue(long key) {
+			int red = (int) (key >> 16) & 0xff;
+			int green = (int) (key >> 8) & 0xff;
+			int blue = (int) key & 0xff;
+			int max = Math.max(red, Math.max(green, blue));
+			int min = Math.min(red, Math.min(green, blue));
+			int delta = max - min;
+
+			int hue;
+			if (delta == 0) hue = 0;
+			else if (max == red) hue = (60 * (green - blue) / delta + 360) % 360;
+			else if (max == green) hue = 120 + 60 * (blue - red) / delta;
+			else hue = 240 + 60 * (red - green) / delta;
+			int sat = max == 0 ? 0 : delta * 100 / max;
+			int val = max * 100 / 255;
+
+			return new Value("hsv(" + hue + ", " + sat + "%, " + val + "%)");
+		}
+
+		@Override
+		ValueType getValueType() {
+			return ValueType.STRING;
+		}
+	}
+
+}
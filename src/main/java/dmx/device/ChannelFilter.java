@@ -0,0 +1,57 @@
+package dmx.device;
+
+/* Optional filtering of one channel (or one decoded value) before it is published.
+ * An exponential moving average smooths dithering inputs, and a deadband suppresses
+ * publishing changes no larger than the band. Changes that land on the minimum or
+ * maximum value are always published, so full on/off transitions are never lost.
+ * All state is primitive, so filtering never allocates. */
+final class ChannelFilter {
+
+	private final int deadband;
+	
+	// Weight of each new sample in the moving average, in 256ths. 256 means no smoothing.
+	private final int weight;
+	
+	private final int max;
+	
+	// Moving average with 8 fractional bits, or -1 before the first sample.
+	private long average = -1;
+	
+	// Last value published, or -1 if nothing was published yet.
+	private int published = -1;
+	
+	/* Smoothing ranges from 0 (none) to 1 (exclusive), the weight given to the 
+	 * previous average. Max is the largest value the input can take. */
+	ChannelFilter(int deadband, double smoothing, int max) {
+		this.deadband = Math.max(deadband, 0);
+		if (smoothing <= 0) this.weight = 256;
+		else this.weight = Math.max(1, (int) Math.round((1 - Math.min(smoothing, 1)) * 256));
+		this.max = max;
+	}
+	
+	/* Returns the smoothed value for a new raw sample. */
+	int smooth(int raw) {
+		if (weight == 256) return raw;
+		if (average < 0) {
+			average = (long) raw << 8;
+		} else {
+			average += (((long) raw << 8) - average) * weight >> 8;
+		}
+		return (int) ((average + 128) >> 8);
+	}
+	
+	/* Returns whether the value differs enough from the last published value to be
+	 * worth publishing. */
+	boolean exceeds(int value) {
+		if (published < 0) return true;
+		int diff = value - published;
+		if (diff == 0) return false;
+		return diff > deadband || diff < -deadband || value == 0 || value == max;
+	}
+	
+	/* Records that the value was published. */
+	void publish(int value) {
+		published = value;
+	}
+
+}
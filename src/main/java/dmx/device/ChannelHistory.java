@@ -0,0 +1,96 @@
+package dmx.device;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/* A fixed-size ring of the most recent completed frames of one universe, stored
+ * as one byte per channel. Memory use is fixed when the history is created:
+ * 512 bytes plus a timestamp per frame, e.g. about 1.4 MB for 60 seconds at 44 Hz.
+ * Recording a frame is a single pass over the universe into the preallocated ring. */
+final class ChannelHistory {
+
+	// The DMX-512 maximum refresh rate, used to size the ring from a length in seconds.
+	static final int FRAME_RATE = 44;
+	
+	// Longest history that can be configured, to keep memory use bounded.
+	static final int MAX_SECONDS = 600;
+	
+	private static final int CHANNELS = 512;
+	
+	// SimpleDateFormat is not thread-safe, and formatTime() is called per frame
+	private static final ThreadLocal<SimpleDateFormat> TIME_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+		@Override
+		protected SimpleDateFormat initialValue() {
+			return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+		}
+	};
+	
+	private final int capacity;
+	private final byte[] frames;
+	private final long[] times;
+	
+	// Number of frames recorded so far. Frame k is stored in slot k % capacity.
+	private long written = 0;
+	
+	ChannelHistory(int seconds) {
+		this.capacity = Math.min(seconds, MAX_SECONDS) * FRAME_RATE;
+		this.frames = new byte[capacity * CHANNELS];
+		this.times = new long[capacity];
+	}
+	
+	int getCapacity() {
+		return capacity;
+	}
+	
+	synchronized void record(int[] values, long time) {
+		int slot = (int) (written % capacity);
+		int base = slot * CHANNELS;
+		for (int i = 0; i < CHANNELS; i++) {
+			frames[base + i] = (byte) values[i];
+		}
+		times[slot] = time;
+		written += 1;
+	}
+	
+	/* Copies the frames recorded at or after the given time, oldest first. For each
+	 * frame i, its time is written to timesOut[i] and the value of channels[c] to 
+	 * valuesOut[i * channels.length + c]. Both arrays must be large enough for the 
+	 * whole ring. Returns the number of frames copied.
+	 *
+	 * Only the timestamps are copied under the lock, so the reader thread isn't held
+	 * up while a long history is read. Frames that were overwritten while their
+	 * channels were being copied are dropped afterwards. */
+	int read(long since, int[] channels, long[] timesOut, int[] valuesOut) {
+		long first;
+		int n = 0;
+		synchronized (this) {
+			long end = written;
+			first = Math.max(0, end - capacity);
+			while (first < end && times[(int) (first % capacity)] < since) first += 1;
+			for (long k = first; k < end; k++) {
+				timesOut[n++] = times[(int) (k % capacity)];
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			int base = (int) ((first + i) % capacity) * CHANNELS;
+			for (int c = 0; c < channels.length; c++) {
+				valuesOut[i * channels.length + c] = frames[base + channels[c]] & 0xff;
+			}
+		}
+		long overwritten;
+		synchronized (this) {
+			overwritten = written - capacity - first;
+		}
+		if (overwritten <= 0) return n;
+		int drop = (int) Math.min(overwritten, n);
+		System.arraycopy(timesOut, drop, timesOut, 0, n - drop);
+		System.arraycopy(valuesOut, drop * channels.length, valuesOut, 0, (n - drop) * channels.length);
+		return n - drop;
+	}
+	
+	/* Formats a timestamp the way DSA time values are written. */
+	static String formatTime(long time) {
+		return TIME_FORMAT.get().format(new Date(time));
+	}
+
+}
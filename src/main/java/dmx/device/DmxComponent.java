@@ -4,13 +4,28 @@ import org.dsa.iot.dslink.node.Node;
 import org.dsa.iot.dslink.node.Permission;
 import org.dsa.iot.dslink.node.actions.Action;
 import org.dsa.iot.dslink.node.actions.ActionResult;
+import org.dsa.iot.dslink.node.actions.Parameter;
+import org.dsa.iot.dslink.node.actions.ResultType;
+import org.dsa.iot.dslink.node.actions.table.Row;
+import org.dsa.iot.dslink.node.actions.table.Table;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueType;
 import org.dsa.iot.dslink.util.handler.Handler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public abstract class DmxComponent {
+	private static final Logger LOGGER = LoggerFactory.getLogger(DmxComponent.class);
 	
 	protected DmxDevice device;
 	protected Node node;
 	
+	// Counts my compilations. A failure of update() is logged once per configuration,
+	// so a failure of the previous configuration that is reported after a recompile
+	// doesn't keep failures of the new one out of the log.
+	private volatile int configuration = 0;
+	private int failedConfiguration = -1;
+	
 	DmxComponent(DmxDevice device, Node node) {
 		this.device = device;
 		this.node = node;
@@ -20,20 +35,89 @@ public abstract class DmxComponent {
 	void init() {
 		makeEditAction();
 		makeRemoveAction();
+		makeHistoryAction();
 		update();
+		device.updateAddresses();
 	}
 	
 	void restoreLastSession() {
 		makeEditAction();
 		makeRemoveAction();
+		makeHistoryAction();
 	}
 	
 	protected abstract void update();
 	
+	/* The configuration update() works from, read by the device before calling it. */
+	int getConfiguration() {
+		return configuration;
+	}
+	
+	/* Called by the device when update() threw while working from the given
+	 * configuration. Logs the first failure of each configuration. */
+	void updateFailed(RuntimeException e, int configuration) {
+		if (failedConfiguration == configuration) return;
+		failedConfiguration = configuration;
+		LOGGER.warn("Component " + node.getName() + " of " + device.getName() + " failed to update", e);
+	}
+	
+	/* Reads my attributes into the state update() works from. compile() runs on action
+	 * threads while update() runs on the reader thread, so subclasses publish that
+	 * state with a single volatile write. */
+	protected abstract void compile();
+	
+	/* Compile, and start a new configuration. The plan is published before the new
+	 * configuration number, so update() never runs an older plan under a newer one. */
+	void recompile() {
+		compile();
+		configuration += 1;
+	}
+	
+	/* Apply attributes changed by my edit action: recompile, rebuild the edit action so
+	 * it offers the new values, and publish. The other actions don't depend on my
+	 * attributes and are left alone. */
+	protected void reconfigure() {
+		recompile();
+		makeEditAction();
+		update();
+		device.updateAddresses();
+	}
+	
+	/* Returns the offsets, from the device's base address, of the channels I read. */
+	protected abstract int[] getChannelOffsets();
+	
 	protected abstract void makeEditAction();
 	
 	protected abstract void handleEdit(ActionResult event);
 	
+	/* Adds the parameters for the optional deadband and smoothing filters to an edit action. */
+	protected void addFilterParameters(Action act) {
+		act.addParameter(new Parameter("Deadband", ValueType.NUMBER, getNumberAttribute("Deadband", 0)));
+		act.addParameter(new Parameter("Smoothing", ValueType.NUMBER, getNumberAttribute("Smoothing", 0)));
+	}
+	
+	/* Stores the deadband and smoothing parameters of an edit action invocation. */
+	protected void setFilterAttributes(ActionResult event) {
+		Value deadband = event.getParameter("Deadband");
+		Value smoothing = event.getParameter("Smoothing");
+		if (deadband != null && deadband.getNumber() != null) NodeAttributes.set(node, "Deadband", deadband);
+		if (smoothing != null && smoothing.getNumber() != null) NodeAttributes.set(node, "Smoothing", smoothing);
+	}
+	
+	/* Creates a filter from my deadband and smoothing attributes, for an input whose
+	 * largest value is max. */
+	protected ChannelFilter makeFilter(int max) {
+		int deadband = getNumberAttribute("Deadband", 0).getNumber().intValue();
+		double smoothing = getNumberAttribute("Smoothing", 0).getNumber().doubleValue();
+		return new ChannelFilter(deadband, smoothing, max);
+	}
+	
+	protected Value getNumberAttribute(String name, Number defaultValue) {
+		Value val = node.getAttribute(name);
+		if (val == null || val.getNumber() == null) return new Value(defaultValue);
+		return val;
+	}
+	
 	private void makeRemoveAction() {
 		Action act = new Action(Permission.READ, new Handler<ActionResult>() {
 			public void handle(ActionResult event) {
@@ -45,10 +129,56 @@ public abstract class DmxComponent {
 		else anode.setAction(act);
 	}
 	
+	/* Make the action that returns the recorded history of my channels. */
+	private void makeHistoryAction() {
+		Action act = new Action(Permission.READ, new Handler<ActionResult>() {
+			public void handle(ActionResult event) {
+				handleGetHistory(event);
+			}
+		});
+		act.addParameter(new Parameter("Seconds", ValueType.NUMBER, new Value(60)));
+		act.addResult(new Parameter("Timestamp", ValueType.TIME));
+		act.addResult(new Parameter("Channel", ValueType.NUMBER));
+		act.addResult(new Parameter("Value", ValueType.NUMBER));
+		act.setResultType(ResultType.TABLE);
+		Node anode = node.getChild("get history");
+		if (anode == null) node.createChild("get history").setAction(act).build().setSerializable(false);
+		else anode.setAction(act);
+	}
+	
+	/* Return one row per channel per recorded frame in the requested time span. Returns
+	 * no rows if history is turned off for the connection. */
+	private void handleGetHistory(ActionResult event) {
+		ChannelHistory history = device.conn.history;
+		if (history == null) return;
+		double seconds = event.getParameter("Seconds", ValueType.NUMBER).getNumber().doubleValue();
+		long since = System.currentTimeMillis() - (long) (seconds * 1000);
+		
+		int[] offsets = getChannelOffsets();
+		int[] channels = new int[offsets.length];
+		for (int i = 0; i < offsets.length; i++) {
+			channels[i] = device.baseAddress + offsets[i];
+			if (channels[i] < 0 || channels[i] >= device.conn.channelValues.length) return;
+		}
+		
+		long[] times = new long[history.getCapacity()];
+		int[] values = new int[history.getCapacity() * channels.length];
+		int count = history.read(since, channels, times, values);
+		
+		Table table = event.getTable();
+		for (int i = 0; i < count; i++) {
+			Value time = new Value(ChannelHistory.formatTime(times[i]));
+			for (int c = 0; c < channels.length; c++) {
+				table.addRow(Row.make(time, new Value(channels[c]), new Value(values[i * channels.length + c])));
+			}
+		}
+	}
+	
 	private void remove() {
 		device.components.remove(this);
 		node.clearChildren();
 		node.getParent().removeChild(node);
+		device.updateAddresses();
 	}
 
 }
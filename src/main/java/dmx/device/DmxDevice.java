@@ -8,53 +8,81 @@ import org.dsa.iot.dslink.node.Permission;
 import org.dsa.iot.dslink.node.actions.Action;
 import org.dsa.iot.dslink.node.actions.ActionResult;
 import org.dsa.iot.dslink.node.actions.Parameter;
+import org.dsa.iot.dslink.node.actions.table.Row;
 import org.dsa.iot.dslink.node.value.Value;
 import org.dsa.iot.dslink.node.value.ValueType;
 import org.dsa.iot.dslink.util.handler.Handler;
 import org.dsa.iot.dslink.util.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class DmxDevice {
+	private static final Logger LOGGER = LoggerFactory.getLogger(DmxDevice.class);
 	
 	SerialConn conn;
 	private Node node;
 	final Set<DmxComponent> components = new HashSet<DmxComponent>();
+	final Set<Rule> rules = new HashSet<Rule>();
+	
+	// Holds one child node per rule
+	private Node rulesNode;
 	
 	int baseAddress;
+	
+	// The number of channels reserved from the base address, or 0 to only count the
+	// channels my components use
+	private int channelCount = 0;
 	private int lowestUnused = 0;
 	
 	DmxDevice(SerialConn conn, Node node) {
 		this.conn = conn;
 		this.node = node;
+		// Read here too, since components restored before init() compile against it
+		this.baseAddress = node.getAttribute("Base Address").getNumber().intValue();
 		
 		this.conn.devices.add(this);
 	}
 	
 	void init() {
 		this.baseAddress = node.getAttribute("Base Address").getNumber().intValue();
+		Value count = node.getAttribute("Channel Count");
+		this.channelCount = count != null && count.getNumber() != null ? count.getNumber().intValue() : 0;
+		updateAddresses();
 		
 		makeEditAction();
 		makeRemoveAction();
 		makeAddLinearComponentAction();
 		makeAddRgbComponentAction();
 		makeAddMultistateComponentAction();
+		makeAddMultichannelComponentAction();
+		makeWatchAction();
+		
+		if (rulesNode == null) rulesNode = node.createChild("Rules").build();
+		makeAddRuleAction();
 	}
 	
 	void restoreLastSession() {
 		if (node.getChildren() != null) {
 			for (Node child: node.getChildren().values()) {
-				if (child.getAttribute("Channel Offset") != null) {
-					if (child.getAttribute("Value Mappings") != null) {
-						MultistateComponent mc = new MultistateComponent(this, child);
-						mc.restoreLastSession();
-					} else {
-						LinearComponent lc = new LinearComponent(this, child);
-						lc.restoreLastSession();
+				if (child.getName().equals("Rules")) {
+					restoreRules(child);
+					continue;
+				}
+				
+				Value type = child.getAttribute("Component Type");
+				if (type == null) type = inferComponentType(child);
+				
+				DmxComponent comp = null;
+				if (type != null) {
+					switch (type.getString()) {
+					case LinearComponent.TYPE: comp = new LinearComponent(this, child); break;
+					case RgbComponent.TYPE: comp = new RgbComponent(this, child); break;
+					case MultistateComponent.TYPE: comp = new MultistateComponent(this, child); break;
+					case MultichannelComponent.TYPE: comp = new MultichannelComponent(this, child); break;
 					}
-				} else if (child.getAttribute("Red Channel Offset") != null &&
-						child.getAttribute("Green Channel Offset") != null &&
-						child.getAttribute("Blue Channel Offset") != null) {
-					RgbComponent rc = new RgbComponent(this, child);
-					rc.restoreLastSession();
+				}
+				if (comp != null) {
+					comp.restoreLastSession();
 				} else {
 					node.removeChild(child);
 				}
@@ -62,11 +90,79 @@ public class DmxDevice {
 		}
 		init();
 	}
+	
+	private void restoreRules(Node rnode) {
+		rulesNode = rnode;
+		if (rnode.getChildren() == null) return;
+		for (Node child: rnode.getChildren().values()) {
+			if (child.getAttribute("Channel Offset") != null && child.getAttribute("Condition") != null &&
+					child.getAttribute("Threshold") != null) {
+				Rule rule = new Rule(this, child);
+				rule.init();
+			} else {
+				rnode.removeChild(child);
+			}
+		}
+	}
+	
+	/* Components saved before the type was stored explicitly are identified by their
+	 * attributes, and the type is recorded so this only happens once. Returns null if
+	 * the child is not a component. */
+	private static Value inferComponentType(Node child) {
+		String type = null;
+		if (child.getAttribute("Channel Offset") != null) {
+			if (child.getAttribute("Value Mappings") != null) type = MultistateComponent.TYPE;
+			else type = LinearComponent.TYPE;
+		} else if (child.getAttribute("Red Channel Offset") != null &&
+				child.getAttribute("Green Channel Offset") != null &&
+				child.getAttribute("Blue Channel Offset") != null) {
+			type = RgbComponent.TYPE;
+		}
+		if (type == null) return null;
+		Value val = new Value(type);
+		child.setAttribute("Component Type", val);
+		return val;
+	}
 
 	void update() {
 		for (DmxComponent component: components) {
-			component.update();
+			// One broken component must not stop the connection's reader
+			int configuration = component.getConfiguration();
+			try {
+				component.update();
+			} catch (RuntimeException e) {
+				component.updateFailed(e, configuration);
+			}
+		}
+	}
+	
+	String getName() {
+		return node.getName();
+	}
+	
+	/* Record the channels I use in my connection's address map: my reserved block, if
+	 * I have a channel count, and the channels of all my components. */
+	void updateAddresses() {
+		long[] footprint = channelCount > 0 ? AddressMap.range(baseAddress, baseAddress + channelCount - 1) : AddressMap.range(0, -1);
+		for (DmxComponent comp: components) {
+			for (int offset: comp.getChannelOffsets()) {
+				AddressMap.add(footprint, baseAddress + offset);
+			}
 		}
+		conn.addresses.claim(this, footprint);
+	}
+	
+	/* Adds the result column that add and edit actions use to warn about overlaps. */
+	static void addWarningResult(Action act) {
+		act.addResult(new Parameter("Warning", ValueType.STRING));
+	}
+	
+	/* Warn, in the log and in the action's result, if I share channels with another device. */
+	void reportOverlaps(ActionResult event) {
+		String warning = conn.addresses.describeOverlaps(this);
+		if (warning == null) return;
+		LOGGER.warn(node.getName() + ": " + warning);
+		event.getTable().addRow(Row.make(new Value(warning)));
 	}
 	
 	private void makeEditAction() {
@@ -76,6 +172,8 @@ public class DmxDevice {
 			}
 		});
 		act.addParameter(new Parameter("Base Address", ValueType.NUMBER, new Value(baseAddress)));
+		act.addParameter(new Parameter("Channel Count", ValueType.NUMBER, new Value(channelCount)));
+		addWarningResult(act);
 		Node anode = node.getChild("edit");
 		if (anode == null) node.createChild("edit").setAction(act).build().setSerializable(false);
 		else anode.setAction(act);
@@ -83,10 +181,54 @@ public class DmxDevice {
 	
 	private void handleEdit(ActionResult event) {
 		this.baseAddress = event.getParameter("Base Address", ValueType.NUMBER).getNumber().intValue();
+		Value count = event.getParameter("Channel Count");
+		if (count != null && count.getNumber() != null) this.channelCount = Math.max(count.getNumber().intValue(), 0);
 		
-		node.setAttribute("Base Address", new Value(baseAddress));
+		boolean moved = NodeAttributes.set(node, "Base Address", new Value(baseAddress));
+		NodeAttributes.set(node, "Channel Count", new Value(channelCount));
 		
 		makeEditAction();
+		if (moved) {
+			for (DmxComponent comp: components) {
+				comp.recompile();
+			}
+			conn.rules.rebuild();
+		}
+		updateAddresses();
+		reportOverlaps(event);
+	}
+	
+	/* Make the action that streams the changes to this device's channels. Offsets are
+	 * relative to the base address at the time the stream is opened. Without an End
+	 * Offset, the stream covers up to the highest channel used by my components. */
+	private void makeWatchAction() {
+		Action act = new Action(Permission.READ, new Handler<ActionResult>() {
+			public void handle(ActionResult event) {
+				int start = event.getParameter("Start Offset", ValueType.NUMBER).getNumber().intValue();
+				Value endVal = event.getParameter("End Offset");
+				int end = endVal != null && endVal.getNumber() != null ? endVal.getNumber().intValue() : getHighestOffset();
+				int minDelta = event.getParameter("Minimum Delta", ValueType.NUMBER).getNumber().intValue();
+				ChangeWatcher.open(conn, DmxDevice.this, event, baseAddress + start, baseAddress + end, minDelta);
+			}
+		});
+		act.addParameter(new Parameter("Start Offset", ValueType.NUMBER, new Value(0)));
+		act.addParameter(new Parameter("End Offset", ValueType.NUMBER));
+		act.addParameter(new Parameter("Minimum Delta", ValueType.NUMBER, new Value(1)));
+		ChangeWatcher.setResults(act);
+		Node anode = node.getChild("watch changes");
+		if (anode == null) node.createChild("watch changes").setAction(act).build().setSerializable(false);
+		else anode.setAction(act);
+	}
+	
+	/* The highest channel offset used by any of my components, or 0 if I have none. */
+	private int getHighestOffset() {
+		int highest = 0;
+		for (DmxComponent comp: components) {
+			for (int offset: comp.getChannelOffsets()) {
+				highest = Math.max(highest, offset);
+			}
+		}
+		return highest;
 	}
 	
 	private void makeRemoveAction() {
@@ -102,8 +244,13 @@ public class DmxDevice {
 	
 	private void remove() {
 		conn.devices.remove(this);
+		conn.addresses.release(this);
+		for (ChangeWatcher watcher: conn.watchers) {
+			if (watcher.device == this) watcher.close();
+		}
 		node.clearChildren();
 		node.getParent().removeChild(node);
+		conn.rules.rebuild();
 	}
 	
 	private void makeAddLinearComponentAction() {
@@ -114,6 +261,7 @@ public class DmxDevice {
 		});
 		act.addParameter(new Parameter("Name", ValueType.STRING));
 		act.addParameter(new Parameter("Channel Offset", ValueType.NUMBER, new Value(lowestUnused)));
+		addWarningResult(act);
 		Node anode = node.getChild("add linear component");
 		if (anode == null) node.createChild("add linear component").setAction(act).build().setSerializable(false);
 		else anode.setAction(act);
@@ -126,10 +274,12 @@ public class DmxDevice {
 		if (offset >= lowestUnused) lowestUnused = offset + 1;
 		
 		Node cnode = node.createChild(name).setValueType(ValueType.NUMBER).build();
+		cnode.setAttribute("Component Type", new Value(LinearComponent.TYPE));
 		cnode.setAttribute("Channel Offset", new Value(offset));
 		
 		LinearComponent lc = new LinearComponent(this, cnode);
 		lc.init();
+		reportOverlaps(event);
 	}
 	
 	private void makeAddRgbComponentAction() {
@@ -142,6 +292,7 @@ public class DmxDevice {
 		act.addParameter(new Parameter("Red Channel Offset", ValueType.NUMBER, new Value(lowestUnused)));
 		act.addParameter(new Parameter("Green Channel Offset", ValueType.NUMBER, new Value(lowestUnused+1)));
 		act.addParameter(new Parameter("Blue Channel Offset", ValueType.NUMBER, new Value(lowestUnused+2)));
+		addWarningResult(act);
 		Node anode = node.getChild("add rgb component");
 		if (anode == null) node.createChild("add rgb component").setAction(act).build().setSerializable(false);
 		else anode.setAction(act);
@@ -156,12 +307,14 @@ public class DmxDevice {
 		if (boffset >= lowestUnused) lowestUnused = boffset + 1;
 		
 		Node cnode = node.createChild(name).setValueType(ValueType.STRING).build();
+		cnode.setAttribute("Component Type", new Value(RgbComponent.TYPE));
 		cnode.setAttribute("Red Channel Offset", new Value(roffset));
 		cnode.setAttribute("Green Channel Offset", new Value(goffset));
 		cnode.setAttribute("Blue Channel Offset", new Value(boffset));
 		
 		RgbComponent rc = new RgbComponent(this, cnode);
 		rc.init();
+		reportOverlaps(event);
 	}
 	
 	private void makeAddMultistateComponentAction() {
@@ -173,6 +326,7 @@ public class DmxDevice {
 		act.addParameter(new Parameter("Name", ValueType.STRING));
 		act.addParameter(new Parameter("Channel Offset", ValueType.NUMBER, new Value(lowestUnused)));
 		act.addParameter(new Parameter("Value Mappings", ValueType.STRING, new Value(new JsonObject().toString())));
+		addWarningResult(act);
 		Node anode = node.getChild("add multistate component");
 		if (anode == null) node.createChild("add multistate component").setAction(act).build().setSerializable(false);
 		else anode.setAction(act);
@@ -186,10 +340,78 @@ public class DmxDevice {
 		if (offset >= lowestUnused) lowestUnused = offset + 1;
 		
 		Node cnode = node.createChild(name).setValueType(ValueType.STRING).build();
+		cnode.setAttribute("Component Type", new Value(MultistateComponent.TYPE));
 		cnode.setAttribute("Channel Offset", new Value(offset));
 		cnode.setAttribute("Value Mappings", new Value(mapStr));
 		
 		MultistateComponent mc = new MultistateComponent(this, cnode);
 		mc.init();
+		reportOverlaps(event);
+	}
+	
+	private void makeAddMultichannelComponentAction() {
+		Action act = new Action(Permission.READ, new Handler<ActionResult>() {
+			public void handle(ActionResult event) {
+				handleAddMultichannelComponent(event);
+			}
+		});
+		act.addParameter(new Parameter("Name", ValueType.STRING));
+		act.addParameter(new Parameter("Format", ValueType.makeEnum(ChannelDecoder.FORMATS), new Value(ChannelDecoder.FORMAT_16BIT)));
+		act.addParameter(new Parameter("Channel Offsets", ValueType.STRING, new Value(lowestUnused + ", " + (lowestUnused+1))));
+		addWarningResult(act);
+		Node anode = node.getChild("add multichannel component");
+		if (anode == null) node.createChild("add multichannel component").setAction(act).build().setSerializable(false);
+		else anode.setAction(act);
+	}
+	
+	private void handleAddMultichannelComponent(ActionResult event) {
+		String name = event.getParameter("Name", ValueType.STRING).getString();
+		String format = event.getParameter("Format").getString();
+		String offsetStr = event.getParameter("Channel Offsets", ValueType.STRING).getString();
+		
+		try {
+			for (int offset: ChannelDecoder.parseOffsets(offsetStr)) {
+				if (offset >= lowestUnused) lowestUnused = offset + 1;
+			}
+		} catch (NumberFormatException e) {
+			// The component will report the bad offsets itself
+		}
+		
+		Node cnode = node.createChild(name).build();
+		cnode.setAttribute("Component Type", new Value(MultichannelComponent.TYPE));
+		cnode.setAttribute("Format", new Value(format));
+		cnode.setAttribute("Channel Offsets", new Value(offsetStr));
+		
+		MultichannelComponent mc = new MultichannelComponent(this, cnode);
+		mc.init();
+		reportOverlaps(event);
+	}
+	
+	private void makeAddRuleAction() {
+		Action act = new Action(Permission.READ, new Handler<ActionResult>() {
+			public void handle(ActionResult event) {
+				handleAddRule(event);
+			}
+		});
+		act.addParameter(new Parameter("Name", ValueType.STRING));
+		act.addParameter(new Parameter("Channel Offset", ValueType.NUMBER, new Value(0)));
+		act.addParameter(new Parameter("Condition", ValueType.makeEnum(Rule.CONDITIONS), new Value(Rule.ABOVE)));
+		act.addParameter(new Parameter("Threshold", ValueType.NUMBER, new Value(127)));
+		act.addParameter(new Parameter("Upper Threshold", ValueType.NUMBER, new Value(255)));
+		act.addParameter(new Parameter("Duration", ValueType.NUMBER, new Value(0)));
+		Node anode = rulesNode.getChild("add rule");
+		if (anode == null) rulesNode.createChild("add rule").setAction(act).build().setSerializable(false);
+		else anode.setAction(act);
+	}
+	
+	private void handleAddRule(ActionResult event) {
+		String name = event.getParameter("Name", ValueType.STRING).getString();
+		
+		Node rnode = rulesNode.createChild(name).setValueType(ValueType.BOOL).build();
+		Rule.setAttributes(rnode, event);
+		
+		Rule rule = new Rule(this, rnode);
+		rule.init();
+		conn.rules.rebuild();
 	}
 }
@@ -0,0 +1,96 @@
+package dmx.device;
+
+/* Decodes the Enttec USB Pro widget API, which DMXking widgets also speak: a start
+ * byte (0x7e), a label, a 16-bit little-endian payload length, the payload and an
+ * end byte (0xe7). Messages with other labels are skipped.
+ *
+ * With the "send DMX" label the payload is the start code followed by the channels.
+ * With the "received DMX" label it is preceded by a status byte. */
+class EnttecDecoder extends InputDecoder {
+	
+	static final int DMX_START = 0x7e;
+	static final int DMX_END = 0xe7;
+	static final int LABEL_RECEIVED_DMX = 5;
+	static final int LABEL_SEND_DMX = 6;
+	
+	private static final int STATE_START = 0;
+	private static final int STATE_LABEL = 1;
+	private static final int STATE_LENGTH_LSB = 2;
+	private static final int STATE_LENGTH_MSB = 3;
+	private static final int STATE_PAYLOAD = 4;
+	private static final int STATE_END = 5;
+	
+	private final int label;
+	
+	private int state = STATE_START;
+	private boolean wanted;
+	private int length;
+	
+	// Index of the next payload byte
+	private int position;
+	
+	// Index of the start code in the payload
+	private final int startCodeIndex;
+	
+	EnttecDecoder(int label) {
+		this.label = label;
+		this.startCodeIndex = label == LABEL_RECEIVED_DMX ? 1 : 0;
+	}
+	
+	@Override
+	void decode(byte[] buf, int off, int len, long time) {
+		int end = off + len;
+		for (int i = off; i < end; i++) {
+			int b = buf[i] & 0xff;
+			switch (state) {
+			case STATE_START:
+				if (b == DMX_START) state = STATE_LABEL;
+				break;
+			case STATE_LABEL:
+				wanted = b == label;
+				state = STATE_LENGTH_LSB;
+				break;
+			case STATE_LENGTH_LSB:
+				length = b;
+				state = STATE_LENGTH_MSB;
+				break;
+			case STATE_LENGTH_MSB:
+				length |= b << 8;
+				position = 0;
+				startCode = 0;
+				state = length > 0 ? STATE_PAYLOAD : STATE_END;
+				break;
+			case STATE_PAYLOAD:
+				if (wanted) {
+					int channel = position - startCodeIndex - 1;
+					if (channel >= 0) {
+						// Copy the rest of this frame that is in the buffer in one go
+						int n = Math.min(length - position, end - i);
+						for (int j = 0; j < n; j++) {
+							store(channel + j, buf[i + j] & 0xff);
+						}
+						position += n;
+						i += n - 1;
+					} else {
+						if (position == startCodeIndex) startCode = b;
+						position += 1;
+					}
+				} else {
+					position += 1;
+				}
+				if (position >= length) state = STATE_END;
+				break;
+			case STATE_END:
+				if (wanted && length > startCodeIndex) complete();
+				state = b == DMX_START ? STATE_LABEL : STATE_START;
+				break;
+			}
+		}
+	}
+	
+	@Override
+	void reset() {
+		state = STATE_START;
+	}
+
+}
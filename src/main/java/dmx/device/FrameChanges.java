@@ -0,0 +1,31 @@
+package dmx.device;
+
+/* The channels that changed between two consecutive completed frames, with the 
+ * value each one had in the earlier frame. Preallocated for a full universe and
+ * reused for every frame. */
+final class FrameChanges {
+	
+	final int[] channels = new int[512];
+	final int[] oldValues = new int[512];
+	int count = 0;
+	
+	// Which channels are already listed, so a channel written twice before the
+	// frame completes keeps its original old value.
+	private final boolean[] listed = new boolean[512];
+	
+	void add(int channel, int oldValue) {
+		if (listed[channel]) return;
+		listed[channel] = true;
+		channels[count] = channel;
+		oldValues[count] = oldValue;
+		count += 1;
+	}
+	
+	void clear() {
+		for (int i = 0; i < count; i++) {
+			listed[channels[i]] = false;
+		}
+		count = 0;
+	}
+
+}
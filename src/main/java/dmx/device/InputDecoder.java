@@ -0,0 +1,72 @@
+package dmx.device;
+
+import java.util.Arrays;
+import java.util.List;
+
+/* Decodes the bytes read from a connection's serial port into DMX frames. Each
+ * protocol is a subclass. A decoder writes channel values into the universe array
+ * it is bound to, recording every channel that changes, and calls its listener when
+ * a frame is complete. Where the protocol marks where frames start, values go
+ * straight from the read buffer; otherwise a frame is collected first, so that a
+ * frame is never stored at the wrong channels.
+ *
+ * Decoders don't depend on the serial port or the node tree, so a captured byte
+ * stream can be fed to decode() offline. */
+abstract class InputDecoder {
+	
+	static final String ENTTEC_PRO = "Enttec USB Pro";
+	static final String ENTTEC_PRO_RECEIVED = "Enttec USB Pro (received DMX)";
+	static final String RAW = "Raw (break detect)";
+	
+	static final List<String> PROTOCOLS = Arrays.asList(ENTTEC_PRO, ENTTEC_PRO_RECEIVED, RAW);
+	
+	interface Listener {
+		/* Called after a frame has been written to the universe. The changes bound to
+		 * the decoder hold the channels that changed since the last completed frame;
+		 * the listener is responsible for clearing them. */
+		void frameCompleted(int startCode);
+	}
+	
+	private int[] universe;
+	private FrameChanges changes;
+	private Listener listener;
+	
+	// Start code of the frame being decoded. Only frames with the null start code
+	// carry channel levels; others (RDM, text, ...) are reported but not stored.
+	protected int startCode = 0;
+	
+	void bind(int[] universe, FrameChanges changes, Listener listener) {
+		this.universe = universe;
+		this.changes = changes;
+		this.listener = listener;
+	}
+	
+	/* Decode len bytes of buf starting at off, which were read at the given time. */
+	abstract void decode(byte[] buf, int off, int len, long time);
+	
+	/* Discard any partially decoded frame. */
+	abstract void reset();
+	
+	/* Store the value of a channel of the current frame. */
+	protected final void store(int channel, int value) {
+		if (startCode != 0 || channel >= universe.length) return;
+		int old = universe[channel];
+		if (old != value) {
+			changes.add(channel, old);
+			universe[channel] = value;
+		}
+	}
+	
+	protected final void complete() {
+		listener.frameCompleted(startCode);
+	}
+	
+	/* Create the decoder for a protocol. breakGap is the pause, in milliseconds, that
+	 * marks a break for protocols that find frames by pauses; 0 selects the default. */
+	static InputDecoder create(String protocol, long breakGap) {
+		if (RAW.equals(protocol)) return new RawDecoder(breakGap);
+		if (ENTTEC_PRO_RECEIVED.equals(protocol)) return new EnttecDecoder(EnttecDecoder.LABEL_RECEIVED_DMX);
+		return new EnttecDecoder(EnttecDecoder.LABEL_SEND_DMX);
+	}
+
+}
@@ -11,16 +11,47 @@ import org.dsa.iot.dslink.util.handler.Handler;
 
 public class LinearComponent extends DmxComponent {
 	
+	static final String TYPE = "Linear";
+	
+	// What update() works from, replaced in full by compile() and read once per frame
+	private volatile Plan plan;
+	
+	/* My compiled attributes: the channel and its filter. */
+	private static final class Plan {
+		final int offset;
+		final ChannelFilter filter;
+		
+		Plan(int offset, ChannelFilter filter) {
+			this.offset = offset;
+			this.filter = filter;
+		}
+	}
+	
 	LinearComponent(DmxDevice device, Node node) {
 		super(device, node);
 		this.node.setValueType(ValueType.NUMBER);
+		compile();
+	}
+	
+	@Override
+	protected void compile() {
+		int offset = node.getAttribute("Channel Offset").getNumber().intValue();
+		plan = new Plan(offset, makeFilter(255));
 	}
 
 	@Override
 	protected void update() {
-		int offset = node.getAttribute("Channel Offset").getNumber().intValue();
-		int value = device.conn.channelValues[device.baseAddress + offset];
-		node.setValue(new Value(value));
+		Plan p = plan;
+		int value = p.filter.smooth(device.conn.channelValues[device.baseAddress + p.offset]);
+		if (p.filter.exceeds(value)) {
+			p.filter.publish(value);
+			node.setValue(new Value(value));
+		}
+	}
+
+	@Override
+	protected int[] getChannelOffsets() {
+		return new int[] {plan.offset};
 	}
 
 	@Override
@@ -31,6 +62,8 @@ public class LinearComponent extends DmxComponent {
 			}
 		});
 		act.addParameter(new Parameter("Channel Offset", ValueType.NUMBER, node.getAttribute("Channel Offset")));
+		addFilterParameters(act);
+		DmxDevice.addWarningResult(act);
 		Node anode = node.getChild("edit");
 		if (anode == null) node.createChild("edit").setAction(act).build().setSerializable(false);
 		else anode.setAction(act);
@@ -41,9 +74,11 @@ public class LinearComponent extends DmxComponent {
 	protected void handleEdit(ActionResult event) {
 		int offset = event.getParameter("Channel Offset", ValueType.NUMBER).getNumber().intValue();
 		
-		node.setAttribute("Channel Offset", new Value(offset));
+		NodeAttributes.set(node, "Channel Offset", new Value(offset));
+		setFilterAttributes(event);
 		
-		init();
+		reconfigure();
+		device.reportOverlaps(event);
 		
 	}
 	
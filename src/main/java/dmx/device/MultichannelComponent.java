@@ -0,0 +1,132 @@
+package dmx.device;
+
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.node.Permission;
+import org.dsa.iot.dslink.node.actions.Action;
+import org.dsa.iot.dslink.node.actions.ActionResult;
+import org.dsa.iot.dslink.node.actions.Parameter;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueType;
+import org.dsa.iot.dslink.util.handler.Handler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class MultichannelComponent extends DmxComponent {
+	private static final Logger LOGGER = LoggerFactory.getLogger(MultichannelComponent.class);
+
+	static final String TYPE = "Multichannel";
+
+	// What update() works from. compile() runs on action threads while update() runs
+	// on the reader thread, so a new plan is built in full and published with one
+	// volatile write; update() reads it once per frame. Null if my attributes could
+	// not be compiled.
+	private volatile Plan plan;
+	
+	/* The decoder compiled for a base address, with one filter per lane of the decoded key and the
+	 * filtered value of each lane. */
+	private static final class Plan {
+		final ChannelDecoder decoder;
+		final int base;
+		final int[] offsets;
+		final ChannelFilter[] filters;
+		final int[] laneValues;
+		
+		Plan(ChannelDecoder decoder, int base, int[] offsets, ChannelFilter[] filters) {
+			this.decoder = decoder;
+			this.base = base;
+			this.offsets = offsets;
+			this.filters = filters;
+			this.laneValues = new int[decoder.lanes];
+		}
+	}
+
+	MultichannelComponent(DmxDevice device, Node node) {
+		super(device, node);
+		compile();
+	}
+
+	/* Compile the decode plan from my Format and Channel Offsets attributes. Must be
+	 * called again when the device's base address changes. */
+	@Override
+	protected void compile() {
+		try {
+			String format = node.getAttribute("Format").getString();
+			int[] offsets = ChannelDecoder.parseOffsets(node.getAttribute("Channel Offsets").getString());
+			int base = device.baseAddress;
+			ChannelDecoder decoder = ChannelDecoder.compile(format, base, offsets);
+			ChannelFilter[] filters = new ChannelFilter[decoder.lanes];
+			for (int i = 0; i < filters.length; i++) {
+				filters[i] = makeFilter((1 << decoder.laneBits) - 1);
+			}
+			node.setValueType(decoder.getValueType());
+			plan = new Plan(decoder, base, offsets, filters);
+		} catch (Exception e) {
+			LOGGER.debug("", e);
+			plan = null;
+			node.setValueType(ValueType.STRING);
+		}
+	}
+
+	@Override
+	protected void update() {
+		Plan p = plan;
+		if (p == null) return;
+		long key = p.decoder.decode(device.conn.channelValues, p.base);
+		
+		ChannelFilter[] filters = p.filters;
+		int bits = p.decoder.laneBits;
+		long mask = (1L << bits) - 1;
+		long filtered = 0;
+		boolean exceeds = false;
+		for (int i = 0; i < filters.length; i++) {
+			int value = filters[i].smooth((int) ((key >> (i * bits)) & mask));
+			if (filters[i].exceeds(value)) exceeds = true;
+			p.laneValues[i] = value;
+			filtered |= (long) value << (i * bits);
+		}
+		if (!exceeds) return;
+		
+		for (int i = 0; i < filters.length; i++) {
+			filters[i].publish(p.laneValues[i]);
+		}
+		node.setValue(p.decoder.toValue(filtered));
+	}
+
+	@Override
+	protected int[] getChannelOffsets() {
+		Plan p = plan;
+		return p != null ? p.offsets : new int[0];
+	}
+
+	@Override
+	protected void makeEditAction() {
+		Action act = new Action(Permission.READ, new Handler<ActionResult>() {
+			public void handle(ActionResult event) {
+				handleEdit(event);
+			}
+		});
+		act.addParameter(new Parameter("Format", ValueType.makeEnum(ChannelDecoder.FORMATS), node.getAttribute("Format")));
+		act.addParameter(new Parameter("Channel Offsets", ValueType.STRING, node.getAttribute("Channel Offsets")));
+		addFilterParameters(act);
+		DmxDevice.addWarningResult(act);
+		Node anode = node.getChild("edit");
+		if (anode == null) node.createChild("edit").setAction(act).build().setSerializable(false);
+		else anode.setAction(act);
+
+	}
+
+	@Override
+	protected void handleEdit(ActionResult event) {
+		String format = event.getParameter("Format").getString();
+		String offsetStr = event.getParameter("Channel Offsets", ValueType.STRING).getString();
+
+		NodeAttributes.set(node, "Format", new Value(format));
+		NodeAttributes.set(node, "Channel Offsets", new Value(offsetStr));
+		setFilterAttributes(event);
+
+		reconfigure();
+		device.reportOverlaps(event);
+
+	}
+
+}
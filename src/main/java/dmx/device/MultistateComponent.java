@@ -1,5 +1,7 @@
 package dmx.device;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
 
@@ -16,30 +18,57 @@ import org.dsa.iot.dslink.util.json.JsonObject;
 
 public class MultistateComponent extends DmxComponent {
 	
-	private JsonObject mappings;
+	static final String TYPE = "Multistate";
+	
+	// What update() works from. compile() runs on action threads while update() runs
+	// on the reader thread, so a new plan is built in full and published with one
+	// volatile write; update() reads it once per frame.
+	private volatile Plan plan;
+	
+	/* My compiled attributes: the channel, its filter and hysteresis, and the value
+	 * mappings as parallel arrays (null if they could not be parsed). */
+	private static final class Plan {
+		final int offset;
+		final ChannelFilter filter;
+		final int hysteresis;
+		final Value[] states;
+		final int[] lowerBounds;
+		final int[] upperBounds;
+		
+		// Index of the state last published, or -1 if none. Only used by the reader thread.
+		int current = -1;
+		
+		Plan(int offset, ChannelFilter filter, int hysteresis, Value[] states, int[] lowerBounds, int[] upperBounds) {
+			this.offset = offset;
+			this.filter = filter;
+			this.hysteresis = hysteresis;
+			this.states = states;
+			this.lowerBounds = lowerBounds;
+			this.upperBounds = upperBounds;
+		}
+	}
 	
 	MultistateComponent(DmxDevice device, Node node) {
 		super(device, node);
-		updateMappings();
+		compile();
 	}
 	
-	private void updateMappings() {
+	@Override
+	protected void compile() {
+		int offset = node.getAttribute("Channel Offset").getNumber().intValue();
+		ChannelFilter filter = makeFilter(255);
+		int hysteresis = getNumberAttribute("Hysteresis", 0).getNumber().intValue();
+		Value[] states = null;
+		int[] lowerBounds = null;
+		int[] upperBounds = null;
 		try {
 			String mapStr = node.getAttribute("Value Mappings").getString();
-			mappings = new JsonObject(mapStr);
+			JsonObject mappings = new JsonObject(mapStr);
 			Set<String> enums = mappings.getMap().keySet();
 			node.setValueType(ValueType.makeEnum(enums));
-		} catch (Exception e) {
-			mappings = null;
-			node.setValueType(ValueType.STRING);
-		}
-	}
-
-	@Override
-	protected void update() {
-		int offset = node.getAttribute("Channel Offset").getNumber().intValue();
-		int value = device.conn.channelValues[device.baseAddress + offset];
-		if (mappings != null) {
+			
+			List<Value> stateList = new ArrayList<Value>();
+			List<int[]> rangeList = new ArrayList<int[]>();
 			for (Entry<String, Object> entry: mappings) {
 				Object o = entry.getValue();
 				if (o instanceof JsonArray) {
@@ -47,20 +76,59 @@ public class MultistateComponent extends DmxComponent {
 					if (range.size() >= 2) {
 						Object lower = range.get(0);
 						Object upper = range.get(1);
-						if (lower instanceof Number && upper instanceof Number && 
-								((Number) lower).intValue() <= value && 
-								value <= ((Number) upper).intValue()) {
-							node.setValue(new Value(entry.getKey()));
+						if (lower instanceof Number && upper instanceof Number) {
+							stateList.add(new Value(entry.getKey()));
+							rangeList.add(new int[] {((Number) lower).intValue(), ((Number) upper).intValue()});
 						}
 					}
 				}
 			}
-		} else {
+			states = stateList.toArray(new Value[stateList.size()]);
+			lowerBounds = new int[states.length];
+			upperBounds = new int[states.length];
+			for (int i = 0; i < states.length; i++) {
+				lowerBounds[i] = rangeList.get(i)[0];
+				upperBounds[i] = rangeList.get(i)[1];
+			}
+		} catch (Exception e) {
+			states = null;
+			node.setValueType(ValueType.STRING);
+		}
+		plan = new Plan(offset, filter, hysteresis, states, lowerBounds, upperBounds);
+	}
+
+	@Override
+	protected void update() {
+		Plan p = plan;
+		int value = p.filter.smooth(device.conn.channelValues[device.baseAddress + p.offset]);
+		if (p.states != null) {
+			// Stay in the current state until the value leaves its range by more than the hysteresis
+			int current = p.current;
+			if (current >= 0 && p.lowerBounds[current] - p.hysteresis <= value && 
+					value <= p.upperBounds[current] + p.hysteresis) {
+				return;
+			}
+			// If ranges overlap, the last matching state wins
+			int next = -1;
+			for (int i = 0; i < p.states.length; i++) {
+				if (p.lowerBounds[i] <= value && value <= p.upperBounds[i]) next = i;
+			}
+			if (next >= 0 && next != current) {
+				p.current = next;
+				node.setValue(p.states[next]);
+			}
+		} else if (p.filter.exceeds(value)) {
+			p.filter.publish(value);
 			node.setValue(new Value(String.valueOf(value)));
 		}
 
 	}
 
+	@Override
+	protected int[] getChannelOffsets() {
+		return new int[] {plan.offset};
+	}
+
 	@Override
 	protected void makeEditAction() {
 		Action act = new Action(Permission.READ, new Handler<ActionResult>() {
@@ -70,6 +138,9 @@ public class MultistateComponent extends DmxComponent {
 		});
 		act.addParameter(new Parameter("Channel Offset", ValueType.NUMBER, node.getAttribute("Channel Offset")));
 		act.addParameter(new Parameter("Value Mappings", ValueType.STRING, node.getAttribute("Value Mappings")));
+		addFilterParameters(act);
+		DmxDevice.addWarningResult(act);
+		act.addParameter(new Parameter("Hysteresis", ValueType.NUMBER, getNumberAttribute("Hysteresis", 0)));
 		Node anode = node.getChild("edit");
 		if (anode == null) node.createChild("edit").setAction(act).build().setSerializable(false);
 		else anode.setAction(act);
@@ -81,11 +152,14 @@ public class MultistateComponent extends DmxComponent {
 		int offset = event.getParameter("Channel Offset", ValueType.NUMBER).getNumber().intValue();
 		String mapStr = event.getParameter("Value Mappings", ValueType.STRING).getString();
 		
-		node.setAttribute("Channel Offset", new Value(offset));
-		node.setAttribute("Value Mappings", new Value(mapStr));
+		NodeAttributes.set(node, "Channel Offset", new Value(offset));
+		NodeAttributes.set(node, "Value Mappings", new Value(mapStr));
+		setFilterAttributes(event);
+		Value hysteresis = event.getParameter("Hysteresis");
+		if (hysteresis != null && hysteresis.getNumber() != null) NodeAttributes.set(node, "Hysteresis", hysteresis);
 		
-		updateMappings();
-		init();
+		reconfigure();
+		device.reportOverlaps(event);
 
 	}
 
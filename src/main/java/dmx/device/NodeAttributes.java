@@ -0,0 +1,35 @@
+package dmx.device;
+
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.node.value.Value;
+
+/* Helpers for writing node attributes. Every attribute write marks the tree as
+ * changed for the SDK's serializer, so edit actions only write the attributes whose
+ * value actually changed. */
+final class NodeAttributes {
+	
+	private NodeAttributes() {
+	}
+	
+	/* Sets the attribute unless it already has this value. Returns whether it changed. */
+	static boolean set(Node node, String name, Value value) {
+		Value old = node.getAttribute(name);
+		if (old != null && equal(old, value)) return false;
+		node.setAttribute(name, value);
+		return true;
+	}
+	
+	/* Numbers are compared by value, since a number read back from nodes.json may
+	 * not have the type it was written with. */
+	private static boolean equal(Value a, Value b) {
+		if (a.getNumber() != null && b.getNumber() != null) {
+			return a.getNumber().doubleValue() == b.getNumber().doubleValue();
+		}
+		if (a.getBool() != null && b.getBool() != null) return a.getBool().equals(b.getBool());
+		if (a.getString() != null && b.getString() != null) {
+			return a.getType() == b.getType() && a.getString().equals(b.getString());
+		}
+		return false;
+	}
+
+}
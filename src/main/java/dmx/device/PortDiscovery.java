@@ -0,0 +1,109 @@
+package dmx.device;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueType;
+import org.dsa.iot.dslink.util.Objects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.serotonin.io.serial.CommPortConfigException;
+import com.serotonin.io.serial.CommPortProxy;
+import com.serotonin.io.serial.SerialUtils;
+
+/* Enumerates the serial ports in the background and caches the result, so that
+ * building actions never has to touch the hardware. The available ports are
+ * published as children of a "Serial Ports" node, and when a port is plugged in or
+ * removed the link is told to rebuild the actions that list ports. */
+public class PortDiscovery {
+	private static final Logger LOGGER = LoggerFactory.getLogger(PortDiscovery.class);
+
+	// How often the ports are enumerated, in seconds
+	static final int SCAN_INTERVAL = 10;
+
+	private SerialLink link;
+	private Node node;
+
+	private volatile Set<String> ports = Collections.emptySet();
+
+	private ScheduledFuture<?> future;
+
+	PortDiscovery(SerialLink link, Node parent) {
+		this.link = link;
+		this.node = parent.createChild("Serial Ports").build();
+		this.node.setSerializable(false);
+	}
+
+	/* Enumerate once right away, so the cache is filled before any action is built,
+	 * then keep enumerating in the background. */
+	void start() {
+		scan();
+		if (future != null) return;
+		future = Objects.getDaemonThreadPool().scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				if (scan()) link.portsChanged();
+			}
+		}, SCAN_INTERVAL, SCAN_INTERVAL, TimeUnit.SECONDS);
+	}
+
+	/* Returns a copy of the cached set of available port names. */
+	Set<String> getPorts() {
+		return new HashSet<String>(ports);
+	}
+
+	/* Enumerate the ports and update the cache and port nodes. Returns whether the
+	 * set of ports changed. */
+	synchronized boolean scan() {
+		Set<String> found = new HashSet<String>();
+		try {
+			for (CommPortProxy p: SerialUtils.getCommPorts()) {
+				found.add(p.getId());
+			}
+		} catch (CommPortConfigException e) {
+			LOGGER.debug("", e);
+			return false;
+		} catch (RuntimeException e) {
+			LOGGER.debug("", e);
+			return false;
+		} catch (LinkageError e) {
+			// No native serial library on this host. Keep running without ports.
+			LOGGER.warn("Could not enumerate serial ports: " + e);
+			return false;
+		}
+
+		Set<String> old = ports;
+		if (found.equals(old)) return false;
+
+		for (String id: old) {
+			if (!found.contains(id)) {
+				LOGGER.info("Serial port removed: " + id);
+				node.removeChild(nodeName(id));
+			}
+		}
+		for (String id: found) {
+			if (!old.contains(id)) {
+				LOGGER.info("Serial port added: " + id);
+				node.createChild(nodeName(id)).setValueType(ValueType.STRING).setValue(new Value(id)).build().setSerializable(false);
+			}
+		}
+		ports = Collections.unmodifiableSet(found);
+		return true;
+	}
+
+	/* Port ids such as "/dev/ttyUSB0" contain characters that are not allowed in node
+	 * names. The node's value holds the real id. */
+	private static String nodeName(String id) {
+		StringBuilder sb = new StringBuilder(id.length());
+		for (char c: id.toCharArray()) {
+			sb.append(Character.isLetterOrDigit(c) || c == '-' || c == '_' ? c : '_');
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,72 @@
+package dmx.device;
+
+/* Decodes the raw DMX byte stream from adapters that pass the line through, like
+ * OpenDMX-style interfaces. The break between frames isn't visible in the byte
+ * stream, and the serial library doesn't report it, so a pause in the data of at
+ * least the break gap is taken as the start of a new frame. The adapters are USB
+ * serial devices that deliver the line in packets a few milliseconds apart, so the
+ * gap has to be longer than the adapter's packet latency.
+ *
+ * A frame is collected in a buffer of its own and only stored in the universe at a
+ * confirmed boundary: once all 512 channels have arrived, after which the next byte
+ * is the next start code, or at the next pause for a shorter frame. Pauses are only
+ * seen if the port is read as data arrives, not when bytes pile up between polls of
+ * the shared pool, so connections using this decoder always have a reader thread of
+ * their own (see ReaderThreads.modelFor). */
+class RawDecoder extends InputDecoder {
+	
+	// Default break gap in milliseconds, above the 16 ms latency timer of common
+	// USB serial chips
+	static final long DEFAULT_BREAK_GAP = 20;
+	
+	private final long breakGap;
+	
+	// The frame being received, start code first
+	private final byte[] frame = new byte[513];
+	
+	// Index of the next byte in the frame, or -1 until the first break
+	private int position = -1;
+	private long lastRead = 0;
+	
+	RawDecoder(long breakGap) {
+		this.breakGap = breakGap > 0 ? breakGap : DEFAULT_BREAK_GAP;
+	}
+	
+	@Override
+	void decode(byte[] buf, int off, int len, long time) {
+		if (time - lastRead >= breakGap) {
+			if (position > 1) commit();
+			position = 0;
+		}
+		lastRead = time;
+		if (position < 0) return;
+		
+		int end = off + len;
+		int i = off;
+		while (i < end) {
+			int n = Math.min(end - i, frame.length - position);
+			System.arraycopy(buf, i, frame, position, n);
+			position += n;
+			i += n;
+			if (position == frame.length) {
+				commit();
+				position = 0;
+			}
+		}
+	}
+	
+	/* Store the received part of the frame in the universe and complete it. */
+	private void commit() {
+		startCode = frame[0] & 0xff;
+		for (int i = 1; i < position; i++) {
+			store(i - 1, frame[i] & 0xff);
+		}
+		complete();
+	}
+	
+	@Override
+	void reset() {
+		position = -1;
+	}
+
+}
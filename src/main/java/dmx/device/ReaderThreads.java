@@ -0,0 +1,92 @@
+package dmx.device;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/* The ways a connection can run the loop that reads its serial port, selected by its
+ * "Reader Thread" attribute:
+ *  - Shared Pool: the SDK's shared scheduled executor drains the port every 500 ms.
+ *  - Dedicated Thread: a platform thread of its own reads the port as bytes arrive,
+ *    checking it every millisecond while it is empty.
+ *  - Virtual Thread: like Dedicated Thread, but on a virtual thread.
+ *
+ * The raw protocol needs a thread of its own, so a connection using it never reads
+ * on the shared pool.
+ *
+ * The link is built for Java 7, so virtual threads are created through reflection.
+ * On a JDK without them, a platform thread is used instead. */
+final class ReaderThreads {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ReaderThreads.class);
+	
+	static final String SHARED_POOL = "Shared Pool";
+	static final String DEDICATED = "Dedicated Thread";
+	static final String VIRTUAL = "Virtual Thread";
+	
+	static final List<String> MODELS = Arrays.asList(SHARED_POOL, DEDICATED, VIRTUAL);
+	
+	// Thread.ofVirtual(), Thread.Builder.name(String) and Thread.Builder.unstarted(Runnable),
+	// or null if this JDK has no virtual threads
+	private static final Method OF_VIRTUAL;
+	private static final Method NAME;
+	private static final Method UNSTARTED;
+	static {
+		Method ofVirtual = null, name = null, unstarted = null;
+		try {
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			name = builder.getMethod("name", String.class);
+			unstarted = builder.getMethod("unstarted", Runnable.class);
+		} catch (ClassNotFoundException e) {
+			ofVirtual = null;
+		} catch (NoSuchMethodException e) {
+			ofVirtual = null;
+		}
+		OF_VIRTUAL = ofVirtual;
+		NAME = name;
+		UNSTARTED = unstarted;
+	}
+	
+	private ReaderThreads() {
+	}
+	
+	static boolean isVirtualSupported() {
+		return OF_VIRTUAL != null;
+	}
+	
+	/* Returns whether the model reads on a thread of its own rather than the shared pool. */
+	static boolean isBlocking(String model) {
+		return DEDICATED.equals(model) || VIRTUAL.equals(model);
+	}
+	
+	/* Returns the model to use for a connection with the given protocol. The raw
+	 * protocol finds frames by the pauses between them, which the shared pool can't
+	 * see, so it gets a dedicated thread instead. */
+	static String modelFor(String model, String protocol) {
+		if (InputDecoder.RAW.equals(protocol) && !isBlocking(model)) return DEDICATED;
+		return model;
+	}
+	
+	/* Create, but don't start, the reader thread for a model that has one. */
+	static Thread newThread(String model, String name, Runnable task) {
+		if (VIRTUAL.equals(model)) {
+			if (OF_VIRTUAL != null) {
+				try {
+					Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), name);
+					return (Thread) UNSTARTED.invoke(builder, task);
+				} catch (Exception e) {
+					LOGGER.warn("Could not create a virtual thread, using a platform thread", e);
+				}
+			} else {
+				LOGGER.info("Virtual threads need Java 21 or later, using a platform thread for " + name);
+			}
+		}
+		Thread t = new Thread(task, name);
+		t.setDaemon(true);
+		return t;
+	}
+
+}
@@ -11,27 +11,71 @@ import org.dsa.iot.dslink.util.handler.Handler;
 
 public class RgbComponent extends DmxComponent {
 	
+	static final String TYPE = "RGB";
+	
+	// What update() works from, replaced in full by compile() and read once per frame
+	private volatile Plan plan;
+	
+	/* My compiled attributes: the red, green and blue channels and their filters. */
+	private static final class Plan {
+		final int roffset;
+		final int goffset;
+		final int boffset;
+		final ChannelFilter rfilter;
+		final ChannelFilter gfilter;
+		final ChannelFilter bfilter;
+		
+		Plan(int roffset, int goffset, int boffset, ChannelFilter rfilter, ChannelFilter gfilter, ChannelFilter bfilter) {
+			this.roffset = roffset;
+			this.goffset = goffset;
+			this.boffset = boffset;
+			this.rfilter = rfilter;
+			this.gfilter = gfilter;
+			this.bfilter = bfilter;
+		}
+	}
+	
 	RgbComponent(DmxDevice device, Node node) {
 		super(device, node);
 		this.node.setValueType(ValueType.STRING);
+		compile();
 	}
-
+	
 	@Override
-	protected void update() {
+	protected void compile() {
 		int roffset = node.getAttribute("Red Channel Offset").getNumber().intValue();
 		int goffset = node.getAttribute("Green Channel Offset").getNumber().intValue();
 		int boffset = node.getAttribute("Blue Channel Offset").getNumber().intValue();
-		int rvalue = device.conn.channelValues[device.baseAddress + roffset];
-		int gvalue = device.conn.channelValues[device.baseAddress + goffset];
-		int bvalue = device.conn.channelValues[device.baseAddress + boffset];
+		plan = new Plan(roffset, goffset, boffset, makeFilter(255), makeFilter(255), makeFilter(255));
+	}
+
+	@Override
+	protected void update() {
+		Plan p = plan;
+		int[] values = device.conn.channelValues;
+		int rvalue = p.rfilter.smooth(values[device.baseAddress + p.roffset]);
+		int gvalue = p.gfilter.smooth(values[device.baseAddress + p.goffset]);
+		int bvalue = p.bfilter.smooth(values[device.baseAddress + p.boffset]);
 		
-		StringBuffer sb = new StringBuffer("#");
-		sb.append(String.format("%02X", rvalue));
-		sb.append(String.format("%02X", gvalue));
-		sb.append(String.format("%02X", bvalue));
+		// Publish all three channels as soon as any one of them passes its filter
+		if (!p.rfilter.exceeds(rvalue) && !p.gfilter.exceeds(gvalue) && !p.bfilter.exceeds(bvalue)) return;
+		p.rfilter.publish(rvalue);
+		p.gfilter.publish(gvalue);
+		p.bfilter.publish(bvalue);
+		
+		StringBuilder sb = new StringBuilder(7).append('#');
+		ChannelDecoder.appendHex(sb, rvalue);
+		ChannelDecoder.appendHex(sb, gvalue);
+		ChannelDecoder.appendHex(sb, bvalue);
 		node.setValue(new Value(sb.toString()));
 	}
 
+	@Override
+	protected int[] getChannelOffsets() {
+		Plan p = plan;
+		return new int[] {p.roffset, p.goffset, p.boffset};
+	}
+
 	@Override
 	protected void makeEditAction() {
 		Action act = new Action(Permission.READ, new Handler<ActionResult>() {
@@ -42,6 +86,8 @@ public class RgbComponent extends DmxComponent {
 		act.addParameter(new Parameter("Red Channel Offset", ValueType.NUMBER, node.getAttribute("Red Channel Offset")));
 		act.addParameter(new Parameter("Green Channel Offset", ValueType.NUMBER, node.getAttribute("Green Channel Offset")));
 		act.addParameter(new Parameter("Blue Channel Offset", ValueType.NUMBER, node.getAttribute("Blue Channel Offset")));
+		addFilterParameters(act);
+		DmxDevice.addWarningResult(act);
 		Node anode = node.getChild("edit");
 		if (anode == null) node.createChild("edit").setAction(act).build().setSerializable(false);
 		else anode.setAction(act);
@@ -54,11 +100,13 @@ public class RgbComponent extends DmxComponent {
 		int goffset = event.getParameter("Green Channel Offset", ValueType.NUMBER).getNumber().intValue();
 		int boffset = event.getParameter("Blue Channel Offset", ValueType.NUMBER).getNumber().intValue();
 		
-		node.setAttribute("Red Channel Offset", new Value(roffset));
-		node.setAttribute("Green Channel Offset", new Value(goffset));
-		node.setAttribute("Blue Channel Offset", new Value(boffset));
+		NodeAttributes.set(node, "Red Channel Offset", new Value(roffset));
+		NodeAttributes.set(node, "Green Channel Offset", new Value(goffset));
+		NodeAttributes.set(node, "Blue Channel Offset", new Value(boffset));
+		setFilterAttributes(event);
 		
-		init();
+		reconfigure();
+		device.reportOverlaps(event);
 	}
 
 }
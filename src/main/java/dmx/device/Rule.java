@@ -0,0 +1,186 @@
+package dmx.device;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.node.Permission;
+import org.dsa.iot.dslink.node.actions.Action;
+import org.dsa.iot.dslink.node.actions.ActionResult;
+import org.dsa.iot.dslink.node.actions.Parameter;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueType;
+import org.dsa.iot.dslink.util.handler.Handler;
+
+/* A condition on one channel of a device. The rule's node is true while the condition
+ * holds (for level conditions, once it has held for the rule's duration), and for one
+ * frame after an edge. Each time it becomes true, "Trigger Count" and "Last Triggered"
+ * are updated. Rules are evaluated by the connection's RuleEngine. */
+public class Rule {
+
+	static final String ABOVE = "Above";
+	static final String BELOW = "Below";
+	static final String BETWEEN = "Between";
+	static final String OUTSIDE = "Outside";
+	static final String RISING = "Rising Edge";
+	static final String FALLING = "Falling Edge";
+
+	static final List<String> CONDITIONS = Arrays.asList(ABOVE, BELOW, BETWEEN, OUTSIDE, RISING, FALLING);
+
+	private static final int KIND_ABOVE = 0;
+	private static final int KIND_BELOW = 1;
+	private static final int KIND_BETWEEN = 2;
+	private static final int KIND_OUTSIDE = 3;
+	private static final int KIND_RISING = 4;
+	private static final int KIND_FALLING = 5;
+
+	DmxDevice device;
+	private Node node;
+	private Node countNode;
+	private Node lastNode;
+
+	// The compiled condition
+	int offset;
+	private int kind;
+	private int low;
+	private int high;
+	long duration;
+
+	// Evaluation state, kept by the reader thread and reset when the rule is edited
+	boolean active = false;
+	long since = -1;
+	boolean waiting = false;
+	private int count = 0;
+
+	Rule(DmxDevice device, Node node) {
+		this.device = device;
+		this.node = node;
+		this.device.rules.add(this);
+		this.node.setValueType(ValueType.BOOL);
+	}
+
+	void init() {
+		compile();
+
+		countNode = node.getChild("Trigger Count");
+		if (countNode == null) {
+			countNode = node.createChild("Trigger Count").setValueType(ValueType.NUMBER).setValue(new Value(0)).build();
+			countNode.setSerializable(false);
+		}
+		lastNode = node.getChild("Last Triggered");
+		if (lastNode == null) {
+			lastNode = node.createChild("Last Triggered").setValueType(ValueType.TIME).build();
+			lastNode.setSerializable(false);
+		}
+		active = false;
+		since = -1;
+		node.setValue(new Value(false));
+
+		makeEditAction();
+		makeRemoveAction();
+	}
+
+	private void compile() {
+		offset = node.getAttribute("Channel Offset").getNumber().intValue();
+		kind = CONDITIONS.indexOf(node.getAttribute("Condition").getString());
+		if (kind < 0) kind = KIND_ABOVE;
+		low = node.getAttribute("Threshold").getNumber().intValue();
+		Value upper = node.getAttribute("Upper Threshold");
+		high = upper != null && upper.getNumber() != null ? upper.getNumber().intValue() : low;
+		Value dur = node.getAttribute("Duration");
+		duration = dur != null && dur.getNumber() != null ? dur.getNumber().longValue() : 0;
+	}
+
+	boolean isEdge() {
+		return kind == KIND_RISING || kind == KIND_FALLING;
+	}
+
+	/* Whether a level condition holds for the value. */
+	boolean holds(int value) {
+		switch (kind) {
+		case KIND_ABOVE: return value > low;
+		case KIND_BELOW: return value < low;
+		case KIND_BETWEEN: return low <= value && value <= high;
+		case KIND_OUTSIDE: return value < low || value > high;
+		default: return false;
+		}
+	}
+
+	/* Whether an edge condition fires for a change from oldValue to value. */
+	boolean fires(int oldValue, int value) {
+		if (kind == KIND_RISING) return oldValue <= low && value > low;
+		if (kind == KIND_FALLING) return oldValue >= low && value < low;
+		return false;
+	}
+
+	void activate(long time) {
+		active = true;
+		count += 1;
+		node.setValue(new Value(true));
+		countNode.setValue(new Value(count));
+		lastNode.setValue(new Value(ChannelHistory.formatTime(time)));
+	}
+
+	void deactivate() {
+		active = false;
+		node.setValue(new Value(false));
+	}
+
+	private void makeEditAction() {
+		Action act = new Action(Permission.READ, new Handler<ActionResult>() {
+			public void handle(ActionResult event) {
+				handleEdit(event);
+			}
+		});
+		act.addParameter(new Parameter("Channel Offset", ValueType.NUMBER, node.getAttribute("Channel Offset")));
+		act.addParameter(new Parameter("Condition", ValueType.makeEnum(CONDITIONS), node.getAttribute("Condition")));
+		act.addParameter(new Parameter("Threshold", ValueType.NUMBER, node.getAttribute("Threshold")));
+		act.addParameter(new Parameter("Upper Threshold", ValueType.NUMBER, node.getAttribute("Upper Threshold")));
+		act.addParameter(new Parameter("Duration", ValueType.NUMBER, node.getAttribute("Duration")));
+		Node anode = node.getChild("edit");
+		if (anode == null) node.createChild("edit").setAction(act).build().setSerializable(false);
+		else anode.setAction(act);
+	}
+
+	private void handleEdit(ActionResult event) {
+		setAttributes(node, event);
+		compile();
+		if (active) deactivate();
+		makeEditAction();
+		device.conn.rules.rebuild();
+	}
+
+	/* Copy the parameters of an add or edit rule action to a rule node's attributes. */
+	static void setAttributes(Node rnode, ActionResult event) {
+		int offset = event.getParameter("Channel Offset", ValueType.NUMBER).getNumber().intValue();
+		String condition = event.getParameter("Condition").getString();
+		int threshold = event.getParameter("Threshold", ValueType.NUMBER).getNumber().intValue();
+		Value upper = event.getParameter("Upper Threshold");
+		Value duration = event.getParameter("Duration");
+
+		NodeAttributes.set(rnode, "Channel Offset", new Value(offset));
+		NodeAttributes.set(rnode, "Condition", new Value(condition));
+		NodeAttributes.set(rnode, "Threshold", new Value(threshold));
+		NodeAttributes.set(rnode, "Upper Threshold", upper != null && upper.getNumber() != null ? upper : new Value(threshold));
+		NodeAttributes.set(rnode, "Duration", duration != null && duration.getNumber() != null ? duration : new Value(0));
+	}
+
+	private void makeRemoveAction() {
+		Action act = new Action(Permission.READ, new Handler<ActionResult>() {
+			public void handle(ActionResult event) {
+				remove();
+			}
+		});
+		Node anode = node.getChild("remove");
+		if (anode == null) node.createChild("remove").setAction(act).build().setSerializable(false);
+		else anode.setAction(act);
+	}
+
+	private void remove() {
+		device.rules.remove(this);
+		node.clearChildren();
+		node.getParent().removeChild(node);
+		device.conn.rules.rebuild();
+	}
+
+}
@@ -0,0 +1,126 @@
+package dmx.device;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/* Evaluates the rules of all devices on a connection. Rules are compiled into one
+ * list per channel, and each frame only the lists of the channels that changed are
+ * evaluated. Besides that, the only per-frame work is checking the rules waiting
+ * for their duration to pass and ending the pulses of edge rules that fired in the
+ * previous frame. */
+class RuleEngine {
+
+	private SerialConn conn;
+
+	// Set from action threads when rules change, and picked up by the reader thread
+	// at the next frame.
+	private volatile Rule[][] pending = null;
+
+	// Only used by the reader thread
+	private Rule[][] byChannel = null;
+	private final List<Rule> waiting = new ArrayList<Rule>();
+	private final List<Rule> pulsed = new ArrayList<Rule>();
+
+	RuleEngine(SerialConn conn) {
+		this.conn = conn;
+	}
+
+	/* Compile the rules of every device, for the reader thread to pick up. */
+	void rebuild() {
+		List<List<Rule>> lists = new ArrayList<List<Rule>>(512);
+		for (int i = 0; i < 512; i++) lists.add(null);
+		for (DmxDevice device: conn.devices) {
+			for (Rule rule: device.rules) {
+				int channel = device.baseAddress + rule.offset;
+				if (channel < 0 || channel >= lists.size()) continue;
+				if (lists.get(channel) == null) lists.set(channel, new ArrayList<Rule>(1));
+				lists.get(channel).add(rule);
+			}
+		}
+		Rule[][] compiled = new Rule[512][];
+		for (int i = 0; i < compiled.length; i++) {
+			List<Rule> list = lists.get(i);
+			if (list != null) compiled[i] = list.toArray(new Rule[list.size()]);
+		}
+		pending = compiled;
+	}
+
+	/* Called by the connection's reader for every completed frame. */
+	void update(int[] values, FrameChanges changes, long now) {
+		for (int i = 0; i < pulsed.size(); i++) {
+			Rule rule = pulsed.get(i);
+			if (rule.active) rule.deactivate();
+		}
+		pulsed.clear();
+
+		Rule[][] next = pending;
+		if (next != null) {
+			pending = null;
+			byChannel = next;
+			waiting.clear();
+			for (int ch = 0; ch < byChannel.length; ch++) {
+				if (byChannel[ch] == null) continue;
+				for (Rule rule: byChannel[ch]) {
+					rule.waiting = false;
+					rule.since = -1;
+					evaluateLevel(rule, values[ch], now);
+				}
+			}
+		} else if (byChannel != null) {
+			for (int i = 0; i < changes.count; i++) {
+				int ch = changes.channels[i];
+				Rule[] rules = byChannel[ch];
+				if (rules == null) continue;
+				for (Rule rule: rules) {
+					if (rule.isEdge()) {
+						if (rule.fires(changes.oldValues[i], values[ch])) {
+							rule.activate(now);
+							pulsed.add(rule);
+						}
+					} else {
+						evaluateLevel(rule, values[ch], now);
+					}
+				}
+			}
+		}
+
+		for (int i = waiting.size() - 1; i >= 0; i--) {
+			Rule rule = waiting.get(i);
+			if (rule.since < 0) {
+				rule.waiting = false;
+				removeWaiting(i);
+			} else if (now - rule.since >= rule.duration) {
+				rule.activate(now);
+				rule.waiting = false;
+				removeWaiting(i);
+			}
+		}
+	}
+
+	private void evaluateLevel(Rule rule, int value, long now) {
+		if (rule.isEdge()) return;
+		if (rule.holds(value)) {
+			if (rule.active || rule.since >= 0) return;
+			if (rule.duration <= 0) {
+				rule.activate(now);
+			} else {
+				rule.since = now;
+				if (!rule.waiting) {
+					rule.waiting = true;
+					waiting.add(rule);
+				}
+			}
+		} else {
+			rule.since = -1;
+			if (rule.active) rule.deactivate();
+		}
+	}
+
+	/* Remove without shifting the rest of the list, order doesn't matter. */
+	private void removeWaiting(int i) {
+		int last = waiting.size() - 1;
+		waiting.set(i, waiting.get(last));
+		waiting.remove(last);
+	}
+
+}
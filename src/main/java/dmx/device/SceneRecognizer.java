@@ -0,0 +1,428 @@
+package dmx.device;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.node.Permission;
+import org.dsa.iot.dslink.node.actions.Action;
+import org.dsa.iot.dslink.node.actions.ActionResult;
+import org.dsa.iot.dslink.node.actions.Parameter;
+import org.dsa.iot.dslink.node.actions.table.Row;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueType;
+import org.dsa.iot.dslink.util.handler.Handler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/* Recognizes which captured scene (look) a connection's universe is showing, and
+ * publishes its name to the connection's "Current Scene" node.
+ *
+ * Scenes that cover the same channels share a group. Each group keeps a hash of the
+ * current frame over its channels; the hash is a sum of per-channel terms, so it is
+ * updated incrementally from the channels that changed in a frame. The hash is
+ * looked up in the group's index of scene hashes, so the cost of recognition
+ * depends on the number of changed channels and groups, not the number of scenes.
+ *
+ * Only if no scene matches exactly are scenes with a tolerance tried. Those are
+ * grouped by channels and tolerance, and each group indexes its scenes by their
+ * value on a pivot channel, the one whose values differ most between the scenes.
+ * Only scenes whose pivot value is within tolerance of the frame are compared in
+ * full, so the cost grows with the number of scenes that agree on the pivot, not
+ * with the number of tolerant scenes as a whole. */
+public class SceneRecognizer {
+	private static final Logger LOGGER = LoggerFactory.getLogger(SceneRecognizer.class);
+
+	private SerialConn conn;
+	private Node connNode;
+
+	// Holds one child node per captured scene
+	private Node node;
+
+	private Node currentNode;
+
+	// Set from action threads when scenes are added or removed, and picked up by the
+	// reader thread at the next frame.
+	private volatile Index pending = null;
+
+	// Only used by the reader thread
+	private Index index = null;
+	private String current = "";
+
+	SceneRecognizer(SerialConn conn, Node connNode) {
+		this.conn = conn;
+		this.connNode = connNode;
+	}
+
+	void init() {
+		node = connNode.getChild("Scenes");
+		if (node == null) node = connNode.createChild("Scenes").build();
+
+		if (node.getChildren() != null) {
+			for (Node child: node.getChildren().values()) {
+				if (child.getAttribute("Channels") == null || child.getAttribute("Values") == null) {
+					node.removeChild(child);
+				} else {
+					makeRemoveSceneAction(child);
+				}
+			}
+		}
+
+		currentNode = connNode.getChild("Current Scene");
+		if (currentNode == null) {
+			currentNode = connNode.createChild("Current Scene").setValueType(ValueType.STRING).setValue(new Value("")).build();
+			currentNode.setSerializable(false);
+		}
+
+		makeCaptureSceneAction();
+		rebuild();
+	}
+
+	/* Called by the connection's reader for every completed frame. */
+	void update(int[] values, FrameChanges changes) {
+		Index next = pending;
+		if (next != null) {
+			pending = null;
+			index = next;
+			index.reset(values);
+		} else if (changes.count == 0) {
+			return;
+		} else if (index != null) {
+			index.apply(values, changes);
+		}
+		if (index == null) return;
+
+		Scene match = index.match(values);
+		String name = match != null ? match.name : "";
+		if (!name.equals(current)) {
+			current = name;
+			currentNode.setValue(new Value(name));
+		}
+	}
+
+	private void makeCaptureSceneAction() {
+		Action act = new Action(Permission.READ, new Handler<ActionResult>() {
+			public void handle(ActionResult event) {
+				handleCaptureScene(event);
+			}
+		});
+		act.addParameter(new Parameter("Name", ValueType.STRING));
+		act.addParameter(new Parameter("Channels", ValueType.STRING, new Value("")));
+		act.addParameter(new Parameter("Tolerance", ValueType.NUMBER, new Value(0)));
+		DmxDevice.addWarningResult(act);
+		Node anode = connNode.getChild("capture scene");
+		if (anode == null) connNode.createChild("capture scene").setAction(act).build().setSerializable(false);
+		else anode.setAction(act);
+	}
+
+	/* Snapshot the last completed frame, over the given channels (all channels if none
+	 * are given), as a new scene. Refused until the connection has a frame, since the
+	 * scene would otherwise be all zeros. */
+	private void handleCaptureScene(ActionResult event) {
+		String name = event.getParameter("Name", ValueType.STRING).getString();
+		Value chanVal = event.getParameter("Channels");
+		String chanStr = chanVal != null && chanVal.getString() != null ? chanVal.getString() : "";
+		int tolerance = event.getParameter("Tolerance", ValueType.NUMBER).getNumber().intValue();
+
+		if (!conn.hasFrame()) {
+			String warning = "No frame received yet";
+			LOGGER.warn(connNode.getName() + ": " + warning + ", scene " + name + " not captured");
+			event.getTable().addRow(Row.make(new Value(warning)));
+			return;
+		}
+		int[] channels = parseChannels(chanStr);
+		int[] frame = conn.getLastFrame();
+		StringBuilder values = new StringBuilder();
+		for (int i = 0; i < channels.length; i++) {
+			if (i > 0) values.append(',');
+			values.append(frame[channels[i]]);
+		}
+
+		Node snode = node.createChild(name).build();
+		snode.setAttribute("Channels", new Value(formatChannels(channels)));
+		snode.setAttribute("Values", new Value(values.toString()));
+		snode.setAttribute("Tolerance", new Value(tolerance));
+		makeRemoveSceneAction(snode);
+		rebuild();
+	}
+
+	private void makeRemoveSceneAction(final Node snode) {
+		Action act = new Action(Permission.READ, new Handler<ActionResult>() {
+			public void handle(ActionResult event) {
+				node.removeChild(snode);
+				rebuild();
+			}
+		});
+		Node anode = snode.getChild("remove");
+		if (anode == null) snode.createChild("remove").setAction(act).build().setSerializable(false);
+		else anode.setAction(act);
+	}
+
+	/* Compile the scene nodes into a new index, for the reader thread to pick up. */
+	private void rebuild() {
+		List<Scene> scenes = new ArrayList<Scene>();
+		if (node.getChildren() != null) {
+			for (Node child: node.getChildren().values()) {
+				if (child.getAttribute("Channels") == null) continue;
+				try {
+					int[] channels = parseChannels(child.getAttribute("Channels").getString());
+					int[] values = parseValues(child.getAttribute("Values").getString());
+					Value tol = child.getAttribute("Tolerance");
+					int tolerance = tol != null && tol.getNumber() != null ? tol.getNumber().intValue() : 0;
+					if (channels.length != values.length) throw new IllegalArgumentException("Channel and value counts differ");
+					scenes.add(new Scene(child.getName(), channels, values, tolerance));
+				} catch (Exception e) {
+					LOGGER.warn("Invalid scene " + child.getName(), e);
+				}
+			}
+		}
+		pending = new Index(scenes);
+	}
+
+	/* Parses a channel list such as "0-23, 40", or returns every channel if the string
+	 * is empty. Channels are returned sorted and without duplicates. */
+	static int[] parseChannels(String str) {
+		boolean[] mask = new boolean[512];
+		if (str.trim().length() == 0) {
+			for (int i = 0; i < mask.length; i++) mask[i] = true;
+		} else {
+			for (String part: str.split(",")) {
+				String[] bounds = part.split("-");
+				int lo = Integer.parseInt(bounds[0].trim());
+				int hi = bounds.length > 1 ? Integer.parseInt(bounds[1].trim()) : lo;
+				if (lo < 0 || hi >= mask.length || lo > hi) throw new IllegalArgumentException("Invalid channel range: " + part);
+				for (int i = lo; i <= hi; i++) mask[i] = true;
+			}
+		}
+		int count = 0;
+		for (boolean b: mask) if (b) count += 1;
+		int[] channels = new int[count];
+		int n = 0;
+		for (int i = 0; i < mask.length; i++) {
+			if (mask[i]) channels[n++] = i;
+		}
+		return channels;
+	}
+
+	private static int[] parseValues(String str) {
+		String[] parts = str.split(",");
+		int[] values = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			values[i] = Integer.parseInt(parts[i].trim());
+		}
+		return values;
+	}
+
+	/* Formats sorted channels as a list of ranges, the inverse of parseChannels(). */
+	static String formatChannels(int[] channels) {
+		StringBuilder sb = new StringBuilder();
+		int i = 0;
+		while (i < channels.length) {
+			int j = i;
+			while (j + 1 < channels.length && channels[j + 1] == channels[j] + 1) j += 1;
+			if (sb.length() > 0) sb.append(", ");
+			sb.append(channels[i]);
+			if (j > i) sb.append('-').append(channels[j]);
+			i = j + 1;
+		}
+		return sb.toString();
+	}
+
+	/* The hash term contributed by one channel having one value (a SplitMix64 finalizer). */
+	private static long term(int channel, int value) {
+		long z = ((long) channel << 8 | value) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	private static final class Scene {
+		final String name;
+		final int[] channels;
+		final int[] values;
+		final int tolerance;
+		final long hash;
+
+		Scene(String name, int[] channels, int[] values, int tolerance) {
+			this.name = name;
+			this.channels = channels;
+			this.values = values;
+			this.tolerance = tolerance;
+			long h = 0;
+			for (int i = 0; i < channels.length; i++) {
+				h += term(channels[i], values[i]);
+			}
+			this.hash = h;
+		}
+
+		boolean matches(int[] frame, int tol) {
+			for (int i = 0; i < channels.length; i++) {
+				int diff = frame[channels[i]] - values[i];
+				if (diff > tol || diff < -tol) return false;
+			}
+			return true;
+		}
+	}
+
+	/* Scenes sharing the same channels, indexed by hash. */
+	private static final class Group {
+		final Map<Long, List<Scene>> byHash = new HashMap<Long, List<Scene>>();
+		final int[] channels;
+		long hash;
+
+		Group(int[] channels) {
+			this.channels = channels;
+		}
+	}
+
+	/* Scenes with the same channels and tolerance, indexed by their pivot value. */
+	private static final class TolerantGroup {
+		final int tolerance;
+		final int pivot;
+		final Scene[][] byPivotValue = new Scene[256][];
+
+		TolerantGroup(List<Scene> scenes) {
+			tolerance = scenes.get(0).tolerance;
+			int[] channels = scenes.get(0).channels;
+
+			// Pick the channel with the most distinct values among the scenes
+			int best = 0;
+			int bestDistinct = -1;
+			for (int i = 0; i < channels.length; i++) {
+				boolean[] seen = new boolean[256];
+				int distinct = 0;
+				for (Scene scene: scenes) {
+					int v = scene.values[i] & 0xff;
+					if (!seen[v]) {
+						seen[v] = true;
+						distinct += 1;
+					}
+				}
+				if (distinct > bestDistinct) {
+					best = i;
+					bestDistinct = distinct;
+				}
+			}
+			pivot = channels[best];
+
+			List<List<Scene>> lists = new ArrayList<List<Scene>>(256);
+			for (int v = 0; v < 256; v++) lists.add(null);
+			for (Scene scene: scenes) {
+				int v = scene.values[best] & 0xff;
+				if (lists.get(v) == null) lists.set(v, new ArrayList<Scene>(1));
+				lists.get(v).add(scene);
+			}
+			for (int v = 0; v < 256; v++) {
+				if (lists.get(v) != null) byPivotValue[v] = lists.get(v).toArray(new Scene[lists.get(v).size()]);
+			}
+		}
+
+		Scene match(int[] values) {
+			int v = values[pivot];
+			for (int x = Math.max(0, v - tolerance); x <= Math.min(255, v + tolerance); x++) {
+				Scene[] candidates = byPivotValue[x];
+				if (candidates == null) continue;
+				for (Scene scene: candidates) {
+					if (scene.matches(values, tolerance)) return scene;
+				}
+			}
+			return null;
+		}
+	}
+
+	/* The compiled form of all of a connection's scenes. */
+	private static final class Index {
+		final Group[] groups;
+
+		// The groups each channel belongs to
+		final Group[][] byChannel = new Group[512][];
+
+		final TolerantGroup[] tolerant;
+
+		Index(List<Scene> scenes) {
+			Map<String, Group> groupMap = new LinkedHashMap<String, Group>();
+			Map<String, List<Scene>> tolerantMap = new LinkedHashMap<String, List<Scene>>();
+			for (Scene scene: scenes) {
+				String key = formatChannels(scene.channels);
+				Group group = groupMap.get(key);
+				if (group == null) {
+					group = new Group(scene.channels);
+					groupMap.put(key, group);
+				}
+				List<Scene> bucket = group.byHash.get(scene.hash);
+				if (bucket == null) {
+					bucket = new ArrayList<Scene>(1);
+					group.byHash.put(scene.hash, bucket);
+				}
+				bucket.add(scene);
+				if (scene.tolerance > 0) {
+					String tkey = key + "/" + scene.tolerance;
+					List<Scene> list = tolerantMap.get(tkey);
+					if (list == null) {
+						list = new ArrayList<Scene>();
+						tolerantMap.put(tkey, list);
+					}
+					list.add(scene);
+				}
+			}
+			groups = groupMap.values().toArray(new Group[groupMap.size()]);
+			tolerant = new TolerantGroup[tolerantMap.size()];
+			int t = 0;
+			for (List<Scene> list: tolerantMap.values()) {
+				tolerant[t++] = new TolerantGroup(list);
+			}
+
+			List<List<Group>> lists = new ArrayList<List<Group>>(512);
+			for (int i = 0; i < 512; i++) lists.add(new ArrayList<Group>(0));
+			for (Group group: groups) {
+				for (int ch: group.channels) lists.get(ch).add(group);
+			}
+			for (int i = 0; i < 512; i++) {
+				byChannel[i] = lists.get(i).toArray(new Group[lists.get(i).size()]);
+			}
+		}
+
+		/* Compute every group's hash from scratch. */
+		void reset(int[] values) {
+			for (Group group: groups) {
+				long h = 0;
+				for (int ch: group.channels) {
+					h += term(ch, values[ch]);
+				}
+				group.hash = h;
+			}
+		}
+
+		/* Update the group hashes from the channels that changed. */
+		void apply(int[] values, FrameChanges changes) {
+			for (int i = 0; i < changes.count; i++) {
+				int ch = changes.channels[i];
+				Group[] chGroups = byChannel[ch];
+				if (chGroups.length == 0) continue;
+				long delta = term(ch, values[ch]) - term(ch, changes.oldValues[i]);
+				for (Group group: chGroups) {
+					group.hash += delta;
+				}
+			}
+		}
+
+		Scene match(int[] values) {
+			for (Group group: groups) {
+				List<Scene> bucket = group.byHash.get(group.hash);
+				if (bucket == null) continue;
+				for (Scene scene: bucket) {
+					if (scene.matches(values, 0)) return scene;
+				}
+			}
+			for (TolerantGroup group: tolerant) {
+				Scene scene = group.match(values);
+				if (scene != null) return scene;
+			}
+			return null;
+		}
+	}
+
+}
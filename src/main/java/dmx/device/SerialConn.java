@@ -1,8 +1,12 @@
 package dmx.device;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -12,6 +16,9 @@ import org.dsa.iot.dslink.node.Permission;
 import org.dsa.iot.dslink.node.actions.Action;
 import org.dsa.iot.dslink.node.actions.ActionResult;
 import org.dsa.iot.dslink.node.actions.Parameter;
+import org.dsa.iot.dslink.node.actions.ResultType;
+import org.dsa.iot.dslink.node.actions.table.Row;
+import org.dsa.iot.dslink.node.actions.table.Table;
 import org.dsa.iot.dslink.node.value.Value;
 import org.dsa.iot.dslink.node.value.ValueType;
 import org.dsa.iot.dslink.util.Objects;
@@ -27,34 +34,88 @@ import com.serotonin.io.serial.SerialUtils;
 public class SerialConn {
 	private static final Logger LOGGER = LoggerFactory.getLogger(SerialConn.class);
 	
+	// How long a reader thread sleeps when its serial port has no bytes for it
+	private static final long POLL_MILLIS = 1;
+	
 	private Node node;
 	private SerialLink link;
 	
 	int[] channelValues = new int[512];
-	private int position = -5;
-	private int frameSize = 0;
+	
+	// A copy of the last completed frame, and the channels that changed in it
+	private final int[] lastFrame = new int[512];
+	private final FrameChanges changes = new FrameChanges();
+	
+	// Decodes the bytes read from my port according to my Protocol attribute
+	private volatile InputDecoder decoder;
+	private final byte[] readBuffer = new byte[1024];
+	
+	// Statistics of the decoded frames
+	private Node startCodeNode = null;
+	private Node framesNode = null;
+	private Node changedFramesNode = null;
+	private int lastStartCode = -1;
+	private long frameCount = 0;
+	private long changedFrameCount = 0;
+	private long lastStatsTime = 0;
 	
 	final Set<DmxDevice> devices = new HashSet<DmxDevice>();
 	
+	// Which channels my devices use
+	final AddressMap addresses = new AddressMap();
+	
+	// Recent frames of this universe, or null if history is turned off.
+	volatile ChannelHistory history = null;
+	
+	private final SceneRecognizer scenes;
+	
+	final RuleEngine rules = new RuleEngine(this);
+	
+	// Open "watch changes" streams on this universe or its devices
+	final List<ChangeWatcher> watchers = new CopyOnWriteArrayList<ChangeWatcher>();
+	
+	// Saves the last completed frame, so it can be restored at the next start
+	private final UniverseCheckpoint checkpoint;
+	
+	// Whether channelValues holds a frame, live or restored, and whether that frame
+	// was restored from the checkpoint and not yet replaced by live data.
+	private volatile boolean hasFrame = false;
+	private volatile boolean stale = false;
+	private Node staleNode = null;
+	
+	// Exports each frame to shared memory, or null if export is turned off
+	private volatile SharedUniverseWriter export = null;
+	
 	// Status node. Communicates whether the port is open or closed.
 	private Node statnode = null;
 	
 	// This connection's serial port
 	private SerialPortProxy serialPort = null;
 	
+	// The stream frames are read from: the serial port's, or one attached by the load harness
+	private volatile InputStream input = null;
+	
+	// Whether read() on input blocks until bytes arrive. The serial library's stream
+	// doesn't: it returns -1 whenever its queue of received bytes is empty.
+	private volatile boolean inputBlocks = false;
+	
+	// Run after each completed frame has been handled. Only used by the load harness.
+	volatile Runnable frameObserver = null;
+	
 	// When my node is subscribed to, this refers to the thread that listens on
 	// my serial port (if it's open). When not subscribed, this is null. 
 	private ScheduledFuture<?> future;
 	
-	// The bytes that signify the start and end of a message.
-	static int DMX_START = 0x7e;
-	static int DMX_END = 0xe7;
-	static int DMX_SEND_PACKET = 6;
+	// The thread reading my port, when my Reader Thread attribute selects one of
+	// the thread models. Otherwise, reading is scheduled through future.
+	private volatile Thread readerThread;
 	
 	SerialConn(SerialLink link, Node node) {
 		this.link = link;
 		this.node = node;
 		this.link.conns.add(this);
+		this.scenes = new SceneRecognizer(this, node);
+		this.checkpoint = new UniverseCheckpoint(node.getName());
 	}
 	
 	void restoreLastSession() {
@@ -63,29 +124,120 @@ public class SerialConn {
 				if (child.getAttribute("Base Address") != null) {
 					DmxDevice dev = new DmxDevice(this, child);
 					dev.restoreLastSession();
+				} else if (child.getName().equals("Scenes")) {
+					// Restored by the scene recognizer
 				} else {
 					node.removeChild(child);
 				}
 			}
 		}
+		restoreCheckpoint();
 		init();
 	}
 	
+	/* Load the last frame saved before the link stopped, and publish it right away.
+	 * It is marked stale until the first live frame arrives. */
+	private void restoreCheckpoint() {
+		if (!checkpoint.load(channelValues)) return;
+		synchronized (lastFrame) {
+			System.arraycopy(channelValues, 0, lastFrame, 0, lastFrame.length);
+		}
+		hasFrame = true;
+		stale = true;
+		updateDevices();
+	}
+	
+	/* Write the last completed frame to the checkpoint and flush it to disk. */
+	void saveCheckpoint() {
+		if (!hasFrame) return;
+		checkpoint.write(getLastFrame(), System.currentTimeMillis());
+		checkpoint.force();
+	}
+	
 	void init() {
 		if (statnode == null) {
 			statnode = node.createChild("Status").setValueType(ValueType.STRING).setValue(new Value("Initializing")).build();
 		} else {
 			statnode.setValue(new Value("Initializing"));
 		}
+		if (staleNode == null) {
+			staleNode = node.createChild("Stale").setValueType(ValueType.BOOL).setValue(new Value(stale)).build();
+			staleNode.setSerializable(false);
+		}
 		
 		makeEditAction();
 		makeRemoveAction();
 		
 		makeAddDeviceAction();
+		makeWatchAction();
+		makePatchReportAction();
+		
+		configureDecoder();
+		
+		configureHistory();
+		configureExport();
+		scenes.init();
+		rules.rebuild();
 		
 		connect();
 	}
 	
+	/* Create the decoder for my Protocol attribute, and the nodes reporting its statistics. */
+	private void configureDecoder() {
+		Value protocol = node.getAttribute("Protocol");
+		Value breakGap = node.getAttribute("Break Gap");
+		InputDecoder dec = InputDecoder.create(protocol != null ? protocol.getString() : null,
+				breakGap != null && breakGap.getNumber() != null ? breakGap.getNumber().longValue() : 0);
+		dec.bind(channelValues, changes, new InputDecoder.Listener() {
+			public void frameCompleted(int startCode) {
+				completeFrame(startCode);
+			}
+		});
+		decoder = dec;
+		
+		if (startCodeNode == null) {
+			startCodeNode = node.createChild("Start Code").setValueType(ValueType.NUMBER).build();
+			startCodeNode.setSerializable(false);
+			framesNode = node.createChild("Frames Received").setValueType(ValueType.NUMBER).setValue(new Value(0)).build();
+			framesNode.setSerializable(false);
+			changedFramesNode = node.createChild("Frames Changed").setValueType(ValueType.NUMBER).setValue(new Value(0)).build();
+			changedFramesNode.setSerializable(false);
+		}
+	}
+	
+	/* Open or retire the shared memory export according to my Shared Memory Export attribute. */
+	private void configureExport() {
+		Value enabled = node.getAttribute("Shared Memory Export");
+		if (enabled == null || enabled.getBool() == null || !enabled.getBool()) {
+			retireExport();
+		} else if (export == null) {
+			try {
+				export = new SharedUniverseWriter(SharedUniverse.file(node.getName()));
+			} catch (IOException e) {
+				LOGGER.warn("Could not open shared memory export", e);
+			}
+		}
+	}
+	
+	/* Drop the shared memory export, marking its file dead for readers and deleting it. */
+	private void retireExport() {
+		SharedUniverseWriter exp = export;
+		export = null;
+		if (exp != null) exp.retire();
+	}
+	
+	/* Create, resize or drop the frame history according to my History Seconds attribute. */
+	private void configureHistory() {
+		Value secs = node.getAttribute("History Seconds");
+		int seconds = secs != null && secs.getNumber() != null ? secs.getNumber().intValue() : 0;
+		if (seconds <= 0) {
+			history = null;
+		} else {
+			int capacity = Math.min(seconds, ChannelHistory.MAX_SECONDS) * ChannelHistory.FRAME_RATE;
+			if (history == null || history.getCapacity() != capacity) history = new ChannelHistory(seconds);
+		}
+	}
+	
 	/* Open the serial port and set up actions which should be available while the
 	 * port is open. */
 	private void connect() {
@@ -104,9 +256,15 @@ public class SerialConn {
 		} catch (SerialPortException e) {
 			LOGGER.debug("", e);
 			serialPort = null;
+		} catch (LinkageError e) {
+			// No native serial library on this host
+			LOGGER.warn("Could not open " + serialParams.getCommPortId() + ": " + e);
+			serialPort = null;
 		}
         
         if (serialPort != null) {
+        	input = serialPort.getInputStream();
+        	inputBlocks = false;
         	subscribe();
         	statnode.setValue(new Value("Connected"));
         	node.removeChild("connect");
@@ -122,14 +280,21 @@ public class SerialConn {
 	/* Close the serial port and set up actions which should be available while the port
 	 * is closed. Also discard any bytes that were read since the last complete message. */
 	private void disconnect() {
+		Thread reader = readerThread;
 		unsubscribe();
-		if (serialPort == null) return;
+		input = null;
+		if (serialPort == null) {
+			awaitReader(reader);
+			return;
+		}
 		try {
 			SerialUtils.close(serialPort);
 		} catch (SerialPortException e) {
 			LOGGER.debug("", e);		
 		}
 		serialPort = null;
+		// Closing the port ends a blocking read that ignored the interrupt
+		awaitReader(reader);
 		
 		statnode.setValue(new Value("Disconnected"));
     	node.removeChild("disconnect");
@@ -139,11 +304,24 @@ public class SerialConn {
 	}
 	
 	
-	/* Read and handle all available bytes from the serial port. Once no bytes are
-	 * available, wait half a second and check for more. (If serial port is closed,
-	 * just wait until it is open) */
+	/* Start reading from the port, in the way selected by my Reader Thread attribute.
+	 * On the shared pool: read and handle all available bytes from the serial port;
+	 * once no bytes are available, wait half a second and check for more. (If serial
+	 * port is closed, just wait until it is open) */
 	private void subscribe() {
-		if (future != null) return;
+		if (future != null || readerThread != null) return;
+		Value model = node.getAttribute("Reader Thread");
+		String modelName = model != null ? model.getString() : null;
+		if (ReaderThreads.isBlocking(modelName)) {
+			Thread t = ReaderThreads.newThread(modelName, "DMX reader " + node.getName(), new Runnable() {
+				public void run() {
+					readBlocking();
+				}
+			});
+			readerThread = t;
+			t.start();
+			return;
+		}
 		ScheduledThreadPoolExecutor stpe = Objects.getDaemonThreadPool();
 		future = stpe.scheduleWithFixedDelay(new Runnable() {
 			public void run() {
@@ -155,44 +333,173 @@ public class SerialConn {
 	/* Stop reading (or trying to read) bytes from the serial port. Discard any bytes
 	 * that were read since the last complete message. */
 	private void unsubscribe() {
-		position = -5;
+		InputDecoder dec = decoder;
+		if (dec != null) dec.reset();
+		Thread t = readerThread;
+		if (t != null) {
+			readerThread = null;
+			t.interrupt();
+		}
 		if (future == null) return;
 		future.cancel(false);
 		future = null;
 	}
 	
-	/* Read and handle all available bytes from the serial port. */
+	/* Wait a moment for a reader thread that was told to stop, so that it doesn't
+	 * overlap with the next one. */
+	private static void awaitReader(Thread reader) {
+		if (reader == null || reader == Thread.currentThread()) return;
+		try {
+			reader.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (reader.isAlive()) LOGGER.debug("Reader thread " + reader.getName() + " did not stop");
+	}
+	
+	/* Read from the given stream instead of a serial port. Used by the load harness to
+	 * drive a connection without hardware. If blocks is false, the stream is read like
+	 * a serial port's, which returns -1 rather than waiting for data. */
+	void attachInput(InputStream in, boolean blocks) {
+		input = in;
+		inputBlocks = blocks;
+		subscribe();
+		statnode.setValue(new Value("Attached"));
+	}
+	
+	/* Read all available bytes from the serial port and pass them to the decoder. */
 	private void readWhileAvailable() {
-		if (serialPort == null) return;
+		InputStream in = input;
+		if (in == null) return;
+		InputDecoder dec = decoder;
 		try {
-			while (serialPort.getInputStream().available() > 0) {
-				int b = serialPort.getInputStream().read();
-				if (position == -5) {
-					if (b == DMX_START) position += 1;
-				} else if (position == -4) {
-					if (b == DMX_SEND_PACKET) position += 1;
-					else position = -5;
-				} else if (position == -3) {
-					frameSize = b;
-					position += 1;
-				} else if (position == -2) {
-					frameSize = (b << 8) | frameSize;
-					position += 1;
-				} else if (position == -1) {
-					position += 1;
-				} else if (position >= 0 && position < frameSize-1) {
-					channelValues[position] = b;
-					position += 1;
-				} else if (position == frameSize-1) {
-					updateDevices();
-					if (b == DMX_END) {
-						position = -5;
-						frameSize = 0;
-					}
-				}
+			int available;
+			while ((available = in.available()) > 0) {
+				int len = in.read(readBuffer, 0, Math.min(available, readBuffer.length));
+				if (len <= 0) break;
+				dec.decode(readBuffer, 0, len, System.currentTimeMillis());
 			}
 		} catch (IOException e) {
 			LOGGER.debug("", e);
+		} catch (RuntimeException e) {
+			// An exception would cancel this scheduled task for good
+			LOGGER.warn("Error reading from " + node.getName(), e);
+			dec.reset();
+		}
+	}
+	
+	/* The loop of a reader thread: wait until bytes arrive and pass them to the decoder,
+	 * until the thread is replaced or the stream fails. A stream whose read() blocks is
+	 * read until it ends. A serial port's stream returns -1 or 0 while no bytes have
+	 * arrived, so it is polled every POLL_MILLIS instead, which keeps the delay before
+	 * a frame is handled to about a millisecond without spinning. */
+	private void readBlocking() {
+		Thread self = Thread.currentThread();
+		byte[] buf = new byte[readBuffer.length];
+		try {
+			while (readerThread == self) {
+				InputStream in = input;
+				if (in == null) break;
+				int len;
+				if (inputBlocks) {
+					len = in.read(buf, 0, buf.length);
+					if (len < 0) break;
+				} else {
+					int available = in.available();
+					len = available > 0 ? in.read(buf, 0, Math.min(available, buf.length)) : 0;
+				}
+				if (len <= 0) {
+					Thread.sleep(POLL_MILLIS);
+					continue;
+				}
+				if (readerThread != self) break;
+				decoder.decode(buf, 0, len, System.currentTimeMillis());
+			}
+		} catch (InterruptedIOException e) {
+			// Stopped by unsubscribe()
+		} catch (InterruptedException e) {
+			// Stopped by unsubscribe()
+		} catch (IOException e) {
+			if (readerThread == self) LOGGER.debug("", e);
+		}
+	}
+	
+	/* Handle a complete frame, now in channelValues. An error while handling it is
+	 * logged and the next frame is handled as usual, so it can't stop my reader. */
+	private void completeFrame(int startCode) {
+		try {
+			handleFrame(startCode);
+		} catch (RuntimeException e) {
+			LOGGER.warn("Error handling a frame on " + node.getName(), e);
+		} finally {
+			changes.clear();
+		}
+	}
+	
+	/* Frames with a start code other than the null start code don't carry levels and
+	 * only count towards statistics. */
+	private void handleFrame(int startCode) {
+		long now = System.currentTimeMillis();
+		boolean changed = startCode == 0 && changes.count > 0;
+		updateStats(startCode, changed, now);
+		if (startCode != 0) return;
+		
+		synchronized (lastFrame) {
+			for (int i = 0; i < changes.count; i++) {
+				int ch = changes.channels[i];
+				lastFrame[ch] = channelValues[ch];
+			}
+		}
+		
+		hasFrame = true;
+		if (stale) {
+			stale = false;
+			staleNode.setValue(new Value(false));
+		}
+		
+		updateDevices();
+		checkpoint.maybeWrite(channelValues, now);
+		ChannelHistory hist = history;
+		if (hist != null) hist.record(channelValues, now);
+		SharedUniverseWriter exp = export;
+		if (exp != null) exp.write(channelValues, now);
+		scenes.update(channelValues, changes);
+		rules.update(channelValues, changes, now);
+		if (!watchers.isEmpty() && changes.count > 0) {
+			for (ChangeWatcher watcher: watchers) {
+				watcher.frameCompleted(channelValues, changes, now);
+			}
+		}
+		
+		Runnable observer = frameObserver;
+		if (observer != null) observer.run();
+	}
+	
+	/* Publish the start code when it changes, and the frame counters at most once a second. */
+	private void updateStats(int startCode, boolean changed, long now) {
+		frameCount += 1;
+		if (changed) changedFrameCount += 1;
+		if (startCode != lastStartCode) {
+			lastStartCode = startCode;
+			startCodeNode.setValue(new Value(startCode));
+		}
+		if (now - lastStatsTime >= 1000) {
+			lastStatsTime = now;
+			framesNode.setValue(new Value(frameCount));
+			changedFramesNode.setValue(new Value(changedFrameCount));
+		}
+	}
+	
+	/* Whether a frame has been completed, or restored from the checkpoint, since I was
+	 * created. Until then getLastFrame() is all zeros. */
+	boolean hasFrame() {
+		return hasFrame;
+	}
+	
+	/* Returns a copy of the last completed frame. */
+	int[] getLastFrame() {
+		synchronized (lastFrame) {
+			return lastFrame.clone();
 		}
 	}
 	
@@ -220,6 +527,11 @@ public class SerialConn {
 		act.addParameter(new Parameter("Data Bits", ValueType.NUMBER, node.getAttribute("Data Bits")));
 		act.addParameter(new Parameter("Stop Bits", ValueType.NUMBER, node.getAttribute("Stop Bits")));
 		act.addParameter(new Parameter("Parity", ValueType.NUMBER, node.getAttribute("Parity")));
+		act.addParameter(new Parameter("Protocol", ValueType.makeEnum(InputDecoder.PROTOCOLS), node.getAttribute("Protocol")));
+		act.addParameter(new Parameter("Break Gap", ValueType.NUMBER, node.getAttribute("Break Gap")));
+		act.addParameter(new Parameter("History Seconds", ValueType.NUMBER, node.getAttribute("History Seconds")));
+		act.addParameter(new Parameter("Shared Memory Export", ValueType.BOOL, node.getAttribute("Shared Memory Export")));
+		act.addParameter(new Parameter("Reader Thread", ValueType.makeEnum(ReaderThreads.MODELS), node.getAttribute("Reader Thread")));
 		
 		Node anode = node.getChild("edit");
 		if (anode == null) node.createChild("edit").setAction(act).build().setSerializable(false);
@@ -241,6 +553,11 @@ public class SerialConn {
 		int dbits = event.getParameter("Data Bits", ValueType.NUMBER).getNumber().intValue();
 		int sbits = event.getParameter("Stop Bits", ValueType.NUMBER).getNumber().intValue();
 		int parity = event.getParameter("Parity", ValueType.NUMBER).getNumber().intValue();
+		String protocol = event.getParameter("Protocol").getString();
+		int breakGap = event.getParameter("Break Gap", ValueType.NUMBER).getNumber().intValue();
+		int histSecs = event.getParameter("History Seconds", ValueType.NUMBER).getNumber().intValue();
+		boolean shm = event.getParameter("Shared Memory Export", ValueType.BOOL).getBool();
+		String readerModel = ReaderThreads.modelFor(event.getParameter("Reader Thread").getString(), protocol);
 		
 		if (!node.getName().equals(name)) {
 			Node cnode = node.getParent().createChild(name).build();
@@ -249,18 +566,37 @@ public class SerialConn {
 			cnode.setAttribute("Data Bits", new Value(dbits));
 			cnode.setAttribute("Stop Bits", new Value(sbits));
 			cnode.setAttribute("Parity", new Value(parity));
+			cnode.setAttribute("Protocol", new Value(protocol));
+			cnode.setAttribute("Break Gap", new Value(breakGap));
+			cnode.setAttribute("History Seconds", new Value(histSecs));
+			cnode.setAttribute("Shared Memory Export", new Value(shm));
+			cnode.setAttribute("Reader Thread", new Value(readerModel));
 			SerialConn sc = new SerialConn(link, cnode);
 			remove();
 			sc.init();
 		} else {
-			node.setAttribute("Serial Port", new Value(com));
-			node.setAttribute("Baud Rate", new Value(baud));
-			node.setAttribute("Data Bits", new Value(dbits));
-			node.setAttribute("Stop Bits", new Value(sbits));
-			node.setAttribute("Parity", new Value(parity));
+			// Only reopen the port if something about reading from it changed, or
+			// if it isn't open, so that an edit retries a port that failed to open
+			boolean reopen = serialPort == null;
+			reopen |= NodeAttributes.set(node, "Serial Port", new Value(com));
+			reopen |= NodeAttributes.set(node, "Baud Rate", new Value(baud));
+			reopen |= NodeAttributes.set(node, "Data Bits", new Value(dbits));
+			reopen |= NodeAttributes.set(node, "Stop Bits", new Value(sbits));
+			reopen |= NodeAttributes.set(node, "Parity", new Value(parity));
+			reopen |= NodeAttributes.set(node, "Protocol", new Value(protocol));
+			reopen |= NodeAttributes.set(node, "Break Gap", new Value(breakGap));
+			reopen |= NodeAttributes.set(node, "Reader Thread", new Value(readerModel));
+			NodeAttributes.set(node, "History Seconds", new Value(histSecs));
+			NodeAttributes.set(node, "Shared Memory Export", new Value(shm));
 			
-			disconnect();
-			init();
+			if (reopen) {
+				disconnect();
+				init();
+			} else {
+				configureHistory();
+				configureExport();
+				makeEditAction();
+			}
 		}
 	}
 	
@@ -278,7 +614,13 @@ public class SerialConn {
 	
 	/* Close my serial port and delete my node. */
 	private void remove() {
+		link.conns.remove(this);
 		disconnect();
+		for (ChangeWatcher watcher: watchers) {
+			watcher.close();
+		}
+		checkpoint.delete();
+		retireExport();
 		node.clearChildren();
 		node.getParent().removeChild(node);
 	}
@@ -307,6 +649,26 @@ public class SerialConn {
 		else anode.setAction(act);
 	}
 	
+	/* Make the action that streams every channel change of this universe, filtered by
+	 * channel range and size of the change. */
+	private void makeWatchAction() {
+		Action act = new Action(Permission.READ, new Handler<ActionResult>() {
+			public void handle(ActionResult event) {
+				int start = event.getParameter("Start Channel", ValueType.NUMBER).getNumber().intValue();
+				int end = event.getParameter("End Channel", ValueType.NUMBER).getNumber().intValue();
+				int minDelta = event.getParameter("Minimum Delta", ValueType.NUMBER).getNumber().intValue();
+				ChangeWatcher.open(SerialConn.this, null, event, start, end, minDelta);
+			}
+		});
+		act.addParameter(new Parameter("Start Channel", ValueType.NUMBER, new Value(0)));
+		act.addParameter(new Parameter("End Channel", ValueType.NUMBER, new Value(511)));
+		act.addParameter(new Parameter("Minimum Delta", ValueType.NUMBER, new Value(1)));
+		ChangeWatcher.setResults(act);
+		Node anode = node.getChild("watch changes");
+		if (anode == null) node.createChild("watch changes").setAction(act).build().setSerializable(false);
+		else anode.setAction(act);
+	}
+	
 	private void makeAddDeviceAction() {
 		Action act = new Action(Permission.READ, new Handler<ActionResult>() {
 			public void handle(ActionResult event) {
@@ -315,6 +677,9 @@ public class SerialConn {
 		});
 		act.addParameter(new Parameter("Name", ValueType.STRING));
 		act.addParameter(new Parameter("Base Address", ValueType.NUMBER, new Value(0)));
+		act.addParameter(new Parameter("Channel Count", ValueType.NUMBER, new Value(0)));
+		act.addParameter(new Parameter("Auto Allocate", ValueType.BOOL, new Value(false)));
+		DmxDevice.addWarningResult(act);
 		Node anode = node.getChild("add device");
 		if (anode == null) node.createChild("add device").setAction(act).build().setSerializable(false);
 		else anode.setAction(act);
@@ -323,12 +688,45 @@ public class SerialConn {
 	private void handleAddDevice(ActionResult event) {
 		String name = event.getParameter("Name", ValueType.STRING).getString();
 		int baseAddr = event.getParameter("Base Address", ValueType.NUMBER).getNumber().intValue();
+		Value countVal = event.getParameter("Channel Count");
+		int count = countVal != null && countVal.getNumber() != null ? Math.max(countVal.getNumber().intValue(), 0) : 0;
+		Value auto = event.getParameter("Auto Allocate");
+		
+		if (auto != null && auto.getBool() != null && auto.getBool()) {
+			baseAddr = addresses.findFree(count);
+			if (baseAddr < 0) {
+				String warning = count > 0 ? "No free block of " + count + " channels" : "Auto Allocate needs a Channel Count";
+				LOGGER.warn(node.getName() + ": " + warning + ", device " + name + " not added");
+				event.getTable().addRow(Row.make(new Value(warning)));
+				return;
+			}
+		}
 		
 		Node dnode = node.createChild(name).build();
 		dnode.setAttribute("Base Address", new Value(baseAddr));
+		dnode.setAttribute("Channel Count", new Value(count));
 		
 		DmxDevice dev = new DmxDevice(this, dnode);
 		dev.init();
+		dev.reportOverlaps(event);
+	}
+	
+	/* Make the action that lists the channels used by more than one device. */
+	private void makePatchReportAction() {
+		Action act = new Action(Permission.READ, new Handler<ActionResult>() {
+			public void handle(ActionResult event) {
+				Table table = event.getTable();
+				for (String[] conflict: addresses.conflicts()) {
+					table.addRow(Row.make(new Value(conflict[0]), new Value(conflict[1])));
+				}
+			}
+		});
+		act.addResult(new Parameter("Channels", ValueType.STRING));
+		act.addResult(new Parameter("Devices", ValueType.STRING));
+		act.setResultType(ResultType.TABLE);
+		Node anode = node.getChild("patch report");
+		if (anode == null) node.createChild("patch report").setAction(act).build().setSerializable(false);
+		else anode.setAction(act);
 	}
 	
 
@@ -1,7 +1,8 @@
 package dmx.device;
 
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.dsa.iot.dslink.node.Node;
 import org.dsa.iot.dslink.node.Permission;
@@ -11,35 +12,41 @@ import org.dsa.iot.dslink.node.actions.Parameter;
 import org.dsa.iot.dslink.node.value.Value;
 import org.dsa.iot.dslink.node.value.ValueType;
 import org.dsa.iot.dslink.util.handler.Handler;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import com.serotonin.io.serial.CommPortConfigException;
-import com.serotonin.io.serial.CommPortProxy;
-import com.serotonin.io.serial.SerialUtils;
-
 
 public class SerialLink {
 	
-	private static final Logger LOGGER = LoggerFactory.getLogger(SerialLink.class);
-	
 	private Node node;
-	Set<SerialConn> conns = new HashSet<SerialConn>();
+	Set<SerialConn> conns = Collections.newSetFromMap(new ConcurrentHashMap<SerialConn, Boolean>());
+	
+	private PortDiscovery discovery;
 	
 	private SerialLink(Node node) {
 		this.node = node;
 	}
 	
-	public static void start(Node node) {
+	public static SerialLink start(Node node) {
 		SerialLink sl = new SerialLink(node);
 		sl.init();
+		return sl;
 	}
 	
 	private void init() {
+		discovery = new PortDiscovery(this, node);
+		discovery.start();
+		
 		restoreLastSession();
 		
 		makeAddConnAction();
 		makePortScanAction();
+		
+		// Save a final snapshot of every universe for the next start
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				for (SerialConn sc: conns) {
+					sc.saveCheckpoint();
+				}
+			}
+		}, "DMX checkpoint"));
 	}
 	
 	/* Initialize a SerialConn object for each connection node that was deserialized, 
@@ -47,13 +54,23 @@ public class SerialLink {
 	private void restoreLastSession() {
 		if (node.getChildren() == null) return;
 		for (Node child: node.getChildren().values()) {
-			if (child.getAttribute("Serial Port") == null) {
+			if (child.getName().equals("Serial Ports")) {
+				continue;
+			} else if (child.getAttribute("Serial Port") == null) {
 				node.removeChild(child);
 			} else {
 				checkAttribute(child, "Baud Rate", new Value(9600));
 				checkAttribute(child, "Data Bits", new Value(8));
 				checkAttribute(child, "Stop Bits", new Value(1));
 				checkAttribute(child, "Parity", new Value(0));
+				checkAttribute(child, "Protocol", new Value(InputDecoder.ENTTEC_PRO));
+				checkAttribute(child, "Break Gap", new Value(RawDecoder.DEFAULT_BREAK_GAP));
+				checkAttribute(child, "History Seconds", new Value(0));
+				checkAttribute(child, "Shared Memory Export", new Value(false));
+				checkAttribute(child, "Reader Thread", new Value(ReaderThreads.SHARED_POOL));
+				String model = child.getAttribute("Reader Thread").getString();
+				String protocol = child.getAttribute("Protocol").getString();
+				NodeAttributes.set(child, "Reader Thread", new Value(ReaderThreads.modelFor(model, protocol)));
 				
 				SerialConn sc = new SerialConn(this, child);
 				sc.restoreLastSession();
@@ -68,19 +85,21 @@ public class SerialLink {
 	}
 	
 	/* Creates the action that refreshes the serial ports available through drop-downs
-	 * in other actions. */
+	 * in other actions. Ports are also rescanned in the background, so this is only
+	 * needed to pick up a change right away. */
 	private void makePortScanAction() {
 		Action act = new Action(Permission.READ, new Handler<ActionResult>() {
 			public void handle(ActionResult event) {
-				doPortScan();
+				if (discovery.scan()) portsChanged();
 			}
 		});
 		node.createChild("scan for serial ports").setAction(act).build().setSerializable(false);
 	}
 	
 	/* Re-creates the 'add connection' action and the edit actions, so they accurately
-	 * reflect which serial ports are currently available. */
-	private void doPortScan() {
+	 * reflect which serial ports are currently available. Called by the port discovery
+	 * whenever the set of ports changes. */
+	void portsChanged() {
 		makeAddConnAction();
 		
 		for (SerialConn sc: conns) {
@@ -88,17 +107,9 @@ public class SerialLink {
 		}
 	}
 	
-	/* Returns a set of names of serial ports currently available. */
+	/* Returns a set of names of serial ports currently available, as of the last scan. */
 	public Set<String> getCOMPorts() {
-		Set<String> ports = new HashSet<String>();
-		try {
-			for (CommPortProxy p: SerialUtils.getCommPorts()) {
-				ports.add(p.getId());
-			}
-		} catch (CommPortConfigException e) {
-			LOGGER.debug("" ,e);
-		}
-		return ports;
+		return discovery.getPorts();
 	}
 	
 	/* Creates the action that adds a new connection to a serial port. */
@@ -122,6 +133,11 @@ public class SerialLink {
 		act.addParameter(new Parameter("Data Bits", ValueType.NUMBER, new Value(8)));
 		act.addParameter(new Parameter("Stop Bits", ValueType.NUMBER, new Value(1)));
 		act.addParameter(new Parameter("Parity", ValueType.NUMBER, new Value(0)));
+		act.addParameter(new Parameter("Protocol", ValueType.makeEnum(InputDecoder.PROTOCOLS), new Value(InputDecoder.ENTTEC_PRO)));
+		act.addParameter(new Parameter("Break Gap", ValueType.NUMBER, new Value(RawDecoder.DEFAULT_BREAK_GAP)));
+		act.addParameter(new Parameter("History Seconds", ValueType.NUMBER, new Value(0)));
+		act.addParameter(new Parameter("Shared Memory Export", ValueType.BOOL, new Value(false)));
+		act.addParameter(new Parameter("Reader Thread", ValueType.makeEnum(ReaderThreads.MODELS), new Value(ReaderThreads.SHARED_POOL)));
 
 		Node anode = node.getChild("add connection");
 		if (anode == null) node.createChild("add connection").setAction(act).build().setSerializable(false);
@@ -144,6 +160,11 @@ public class SerialLink {
 		int dbits = event.getParameter("Data Bits", ValueType.NUMBER).getNumber().intValue();
 		int sbits = event.getParameter("Stop Bits", ValueType.NUMBER).getNumber().intValue();
 		int parity = event.getParameter("Parity", ValueType.NUMBER).getNumber().intValue();
+		String protocol = event.getParameter("Protocol").getString();
+		int breakGap = event.getParameter("Break Gap", ValueType.NUMBER).getNumber().intValue();
+		int histSecs = event.getParameter("History Seconds", ValueType.NUMBER).getNumber().intValue();
+		boolean shm = event.getParameter("Shared Memory Export", ValueType.BOOL).getBool();
+		String readerModel = ReaderThreads.modelFor(event.getParameter("Reader Thread").getString(), protocol);
 		
 		Node cnode = node.createChild(name).build();
 		cnode.setAttribute("Serial Port", new Value(com));
@@ -151,6 +172,11 @@ public class SerialLink {
 		cnode.setAttribute("Data Bits", new Value(dbits));
 		cnode.setAttribute("Stop Bits", new Value(sbits));
 		cnode.setAttribute("Parity", new Value(parity));
+		cnode.setAttribute("Protocol", new Value(protocol));
+		cnode.setAttribute("Break Gap", new Value(breakGap));
+		cnode.setAttribute("History Seconds", new Value(histSecs));
+		cnode.setAttribute("Shared Memory Export", new Value(shm));
+		cnode.setAttribute("Reader Thread", new Value(readerModel));
 		
 		SerialConn sc = new SerialConn(this, cnode);
 		sc.init();
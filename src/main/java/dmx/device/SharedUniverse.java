@@ -0,0 +1,96 @@
+package dmx.device;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/* The layout of the memory-mapped files a connection can export its universe to,
+ * shared by SharedUniverseWriter and SharedUniverseReader.
+ *
+ * The header is a seqlock: the writer makes the sequence number odd, writes the
+ * frame and its timestamp, then makes it even again. A reader that sees the same
+ * even sequence number before and after copying the frame has a consistent copy.
+ * Fences between the sequence number and the frame keep the CPU and the JIT from
+ * reordering them.
+ *
+ * Layout (big-endian): int magic, int channel count, long sequence, long timestamp
+ * (ms since the epoch), then one byte per channel. */
+final class SharedUniverse {
+	
+	static final File DIRECTORY = new File("dmx-shm");
+	
+	static final int MAGIC = 0x444d5855;
+	static final int MAGIC_OFFSET = 0;
+	static final int LENGTH_OFFSET = 4;
+	static final int SEQUENCE_OFFSET = 8;
+	static final int TIMESTAMP_OFFSET = 16;
+	static final int DATA_OFFSET = 24;
+	static final int CHANNELS = 512;
+	static final int SIZE = DATA_OFFSET + CHANNELS;
+	
+	// Fences that keep the frame accesses on their side of the sequence number:
+	// VarHandle.acquireFence() and releaseFence() on Java 9 and later, Unsafe's
+	// loadFence() and storeFence() on Java 8, or null on Java 7.
+	private static final MethodHandle LOAD_FENCE = findFence("acquireFence", "loadFence");
+	private static final MethodHandle STORE_FENCE = findFence("releaseFence", "storeFence");
+	
+	// Written in place of a fence on Java 7. On x86, HotSpot compiles a volatile store
+	// to a locked instruction, which is a full fence. That is a property of HotSpot on
+	// x86, not of the Java memory model, so on Java 7 the export is only safe to read
+	// there.
+	private static volatile int fallbackFence;
+	
+	private SharedUniverse() {
+	}
+	
+	private static MethodHandle findFence(String varHandleMethod, String unsafeMethod) {
+		MethodType type = MethodType.methodType(void.class);
+		try {
+			return MethodHandles.publicLookup().findStatic(Class.forName("java.lang.invoke.VarHandle"), varHandleMethod, type);
+		} catch (Exception e) {
+			// Before Java 9
+		}
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			return MethodHandles.publicLookup().findVirtual(unsafeClass, unsafeMethod, type).bindTo(theUnsafe.get(null));
+		} catch (Exception e) {
+			return null;
+		}
+	}
+	
+	/* Keeps loads before the fence from moving after any load or store after it. */
+	static void loadFence() {
+		if (LOAD_FENCE == null) {
+			fallbackFence = 0;
+			return;
+		}
+		try {
+			LOAD_FENCE.invokeExact();
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/* Keeps loads and stores before the fence from moving after any store after it. */
+	static void storeFence() {
+		if (STORE_FENCE == null) {
+			fallbackFence = 0;
+			return;
+		}
+		try {
+			STORE_FENCE.invokeExact();
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/* The file a connection with the given name exports to. */
+	static File file(String connName) {
+		return new File(DIRECTORY, UniverseCheckpoint.fileName(connName) + ".universe");
+	}
+
+}
@@ -0,0 +1,93 @@
+package dmx.device;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/* Reads a universe exported by a connection with "Shared Memory Export" turned on.
+ * For use by other processes on the same host, e.g.
+ *
+ *   SharedUniverseReader reader = new SharedUniverseReader(new File("dmx-shm/MyConn.universe"));
+ *   byte[] frame = new byte[512];
+ *   long seq = 0;
+ *   while (running) {
+ *       if (reader.sequence() != seq) seq = reader.read(frame);
+ *       if (seq == -1) ... // the export was retired or its writer stopped
+ *       ...
+ *   }
+ *
+ * See SharedUniverse for the layout. */
+public class SharedUniverseReader {
+	
+	// How long the sequence number may stay odd before the writer is taken to have
+	// stopped in the middle of a frame. Writing a frame takes microseconds.
+	public static final long STALE_MILLIS = 1000;
+	
+	private final MappedByteBuffer buffer;
+	private long timestamp;
+	
+	public SharedUniverseReader(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			if (raf.length() < SharedUniverse.SIZE) throw new IOException("Not a universe export: " + file);
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, SharedUniverse.SIZE);
+		} finally {
+			raf.close();
+		}
+		if (buffer.getInt(SharedUniverse.MAGIC_OFFSET) != SharedUniverse.MAGIC) throw new IOException("Not a universe export: " + file);
+	}
+	
+	/* The current sequence number. It changes every time a frame is written, so polling
+	 * it is a cheap way to find out whether there is anything new to read. */
+	public long sequence() {
+		return buffer.getLong(SharedUniverse.SEQUENCE_OFFSET);
+	}
+	
+	/* Whether the writer still exports to the file. The connection clears the magic
+	 * when its export is turned off or it is removed or renamed, and deletes the file.
+	 * A reader should then close and look for the file again. */
+	public boolean isLive() {
+		return buffer.getInt(SharedUniverse.MAGIC_OFFSET) == SharedUniverse.MAGIC;
+	}
+	
+	/* Copies a consistent snapshot of the universe into frame, which must hold at least
+	 * 512 bytes, retrying while the writer is in the middle of a frame. Returns the
+	 * sequence number of the snapshot, or -1 if the export has been retired (see
+	 * isLive()) or the writer has been in the middle of the same frame for
+	 * STALE_MILLIS, which means it stopped while writing. frame holds no consistent
+	 * snapshot then. */
+	public long read(byte[] frame) {
+		long stuckSequence = -1;
+		long stuckSince = 0;
+		while (true) {
+			if (!isLive()) return -1;
+			long before = buffer.getLong(SharedUniverse.SEQUENCE_OFFSET);
+			if ((before & 1) == 0) {
+				SharedUniverse.loadFence();
+				for (int i = 0; i < SharedUniverse.CHANNELS; i++) {
+					frame[i] = buffer.get(SharedUniverse.DATA_OFFSET + i);
+				}
+				long time = buffer.getLong(SharedUniverse.TIMESTAMP_OFFSET);
+				SharedUniverse.loadFence();
+				if (buffer.getLong(SharedUniverse.SEQUENCE_OFFSET) == before) {
+					timestamp = time;
+					return before;
+				}
+			} else if (before != stuckSequence) {
+				stuckSequence = before;
+				stuckSince = System.nanoTime();
+			} else if (System.nanoTime() - stuckSince > STALE_MILLIS * 1000000L) {
+				return -1;
+			}
+			Thread.yield();
+		}
+	}
+	
+	/* The timestamp of the frame returned by the last read(), in ms since the epoch. */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+}
@@ -0,0 +1,64 @@
+package dmx.device;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/* Writes each completed frame of a connection into a memory-mapped file, so that
+ * processes on the same host can read the universe without going through the
+ * broker. See SharedUniverse for the layout. */
+class SharedUniverseWriter {
+	
+	private final File file;
+	private final MappedByteBuffer buffer;
+	private long sequence;
+	private boolean retired = false;
+	
+	SharedUniverseWriter(File file) throws IOException {
+		this.file = file;
+		File dir = file.getParentFile();
+		if (dir != null && !dir.isDirectory() && !dir.mkdirs()) throw new IOException("Could not create " + dir);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SharedUniverse.SIZE);
+		} finally {
+			raf.close();
+		}
+		// Continue from an even sequence number left by an earlier writer
+		sequence = buffer.getLong(SharedUniverse.SEQUENCE_OFFSET) & ~1L;
+		buffer.putInt(SharedUniverse.LENGTH_OFFSET, SharedUniverse.CHANNELS);
+		buffer.putInt(SharedUniverse.MAGIC_OFFSET, SharedUniverse.MAGIC);
+	}
+	
+	/* Called by the connection's reader thread. Synchronized only against retire(),
+	 * which runs on an action thread. */
+	synchronized void write(int[] values, long time) {
+		if (retired) return;
+		buffer.putLong(SharedUniverse.SEQUENCE_OFFSET, ++sequence);
+		SharedUniverse.storeFence();
+		for (int i = 0; i < SharedUniverse.CHANNELS; i++) {
+			buffer.put(SharedUniverse.DATA_OFFSET + i, (byte) values[i]);
+		}
+		buffer.putLong(SharedUniverse.TIMESTAMP_OFFSET, time);
+		SharedUniverse.storeFence();
+		buffer.putLong(SharedUniverse.SEQUENCE_OFFSET, ++sequence);
+	}
+	
+	/* Stop exporting: leave the sequence number odd, clear the magic and delete the
+	 * file. A reader that still has the file mapped sees the magic cleared on its next
+	 * read() and gets -1, instead of the last frame forever. */
+	synchronized void retire() {
+		if (retired) return;
+		retired = true;
+		buffer.putLong(SharedUniverse.SEQUENCE_OFFSET, sequence + 1);
+		SharedUniverse.storeFence();
+		buffer.putInt(SharedUniverse.MAGIC_OFFSET, 0);
+		buffer.force();
+		// The mapping keeps the data alive for readers that have it open. Deleting a
+		// mapped file fails on Windows, but the cleared magic already stops readers.
+		file.delete();
+	}
+
+}
@@ -0,0 +1,106 @@
+package dmx.device;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/* Keeps the last completed frame of a connection in a small memory-mapped file, so
+ * it can be loaded at the next start before the port delivers live data. Writing a
+ * checkpoint only copies 512 bytes into the mapping; the OS writes it back to the
+ * file, and it is forced to disk on shutdown.
+ *
+ * Layout: int magic, long timestamp, 512 channel bytes. */
+class UniverseCheckpoint {
+	private static final Logger LOGGER = LoggerFactory.getLogger(UniverseCheckpoint.class);
+
+	static final File DIRECTORY = new File("dmx-state");
+
+	// How often the running frame is checkpointed, in milliseconds
+	static final long INTERVAL = 1000;
+
+	private static final int MAGIC = 0x444d5831;
+	private static final int DATA_OFFSET = 12;
+	private static final int SIZE = DATA_OFFSET + 512;
+
+	private final File file;
+	private MappedByteBuffer buffer;
+	private long lastWrite = 0;
+
+	UniverseCheckpoint(String connName) {
+		this.file = new File(DIRECTORY, fileName(connName) + ".dmx");
+	}
+
+	/* Reads the checkpointed frame into values. Returns false if there is none. */
+	synchronized boolean load(int[] values) {
+		if (!open()) return false;
+		if (buffer.getInt(0) != MAGIC) return false;
+		for (int i = 0; i < 512; i++) {
+			values[i] = buffer.get(DATA_OFFSET + i) & 0xff;
+		}
+		return true;
+	}
+
+	/* Checkpoints the frame if the last checkpoint is at least INTERVAL old. */
+	void maybeWrite(int[] values, long time) {
+		if (time - lastWrite < INTERVAL) return;
+		write(values, time);
+	}
+
+	synchronized void write(int[] values, long time) {
+		lastWrite = time;
+		if (!open()) return;
+		for (int i = 0; i < 512; i++) {
+			buffer.put(DATA_OFFSET + i, (byte) values[i]);
+		}
+		buffer.putLong(4, time);
+		buffer.putInt(0, MAGIC);
+	}
+
+	/* Flushes the last checkpoint to disk. */
+	synchronized void force() {
+		if (buffer != null) buffer.force();
+	}
+
+	/* Forgets the checkpoint, e.g. when the connection is removed. */
+	synchronized void delete() {
+		buffer = null;
+		if (file.exists() && !file.delete()) LOGGER.debug("Could not delete " + file);
+	}
+
+	private boolean open() {
+		if (buffer != null) return true;
+		try {
+			if (!DIRECTORY.isDirectory() && !DIRECTORY.mkdirs()) return false;
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+			} finally {
+				// The mapping stays valid after the file is closed
+				raf.close();
+			}
+			return true;
+		} catch (IOException e) {
+			LOGGER.debug("", e);
+			return false;
+		}
+	}
+
+	/* The base name of a connection's files: its name with every character other than
+	 * letters, digits, - and _ replaced by _, and the hash of the real name appended.
+	 * The hash keeps names like "Rig 1" and "Rig_1", or names that only differ in
+	 * case, from sharing a file. */
+	static String fileName(String connName) {
+		StringBuilder sb = new StringBuilder(connName.length() + 9);
+		for (char c: connName.toCharArray()) {
+			sb.append(Character.isLetterOrDigit(c) || c == '-' || c == '_' ? c : '_');
+		}
+		sb.append('-').append(String.format("%08x", connName.hashCode()));
+		return sb.toString();
+	}
+
+}
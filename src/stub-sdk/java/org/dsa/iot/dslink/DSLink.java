@@ -0,0 +1,12 @@
+package org.dsa.iot.dslink;
+
+import org.dsa.iot.dslink.node.NodeManager;
+
+/* Stand-in for the SDK's link. Only Main uses it, and the harness never runs Main. */
+public class DSLink {
+	
+	public NodeManager getNodeManager() {
+		return null;
+	}
+
+}
@@ -0,0 +1,9 @@
+package org.dsa.iot.dslink;
+
+/* Stand-in for the SDK's link factory. There is no broker to connect to. */
+public class DSLinkFactory {
+	
+	public static void start(String[] args, DSLinkHandler handler) {
+	}
+
+}
@@ -0,0 +1,16 @@
+package org.dsa.iot.dslink;
+
+/* Stand-in for the SDK's link handler. */
+public abstract class DSLinkHandler {
+	
+	public boolean isResponder() {
+		return false;
+	}
+	
+	public void onResponderInitialized(DSLink link) {
+	}
+	
+	public void onResponderConnected(DSLink link) {
+	}
+
+}
@@ -0,0 +1,5 @@
+package org.dsa.iot.dslink.methods;
+
+public enum StreamState {
+	INITIALIZED, OPEN, CLOSED
+}
@@ -0,0 +1,134 @@
+package org.dsa.iot.dslink.node;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.dsa.iot.dslink.DSLink;
+import org.dsa.iot.dslink.node.actions.Action;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueType;
+
+/* Stand-in for the SDK's node: the tree, attributes, values and actions, kept in
+ * memory. Nothing is sent to a broker or serialized to nodes.json, so the harness's
+ * figures don't include the cost of either. */
+public class Node {
+	
+	private final String name;
+	private final Node parent;
+	private final Map<String, Value> attributes = new ConcurrentHashMap<String, Value>();
+	private Map<String, Node> children;
+	private volatile Value value;
+	private ValueType valueType;
+	private Action action;
+	private boolean serializable = true;
+	private String displayName;
+	
+	public Node(String name, Node parent, DSLink link) {
+		this.name = name;
+		this.parent = parent;
+	}
+	
+	public synchronized Map<String, Node> getChildren() {
+		return children == null ? null : new LinkedHashMap<String, Node>(children);
+	}
+	
+	public synchronized Node getChild(String name) {
+		return children == null ? null : children.get(name);
+	}
+	
+	public NodeBuilder createChild(String name) {
+		return new NodeBuilder(this, name);
+	}
+	
+	/* Adds a child built by a NodeBuilder, or returns the existing child of that name,
+	 * as the SDK does. */
+	synchronized Node add(Node child) {
+		if (children == null) children = new LinkedHashMap<String, Node>();
+		Node existing = children.get(child.name);
+		if (existing != null) return existing;
+		children.put(child.name, child);
+		return child;
+	}
+	
+	public synchronized Node removeChild(Node child) {
+		return child == null ? null : removeChild(child.getName());
+	}
+	
+	public synchronized Node removeChild(String name) {
+		return children == null ? null : children.remove(name);
+	}
+	
+	public synchronized void clearChildren() {
+		children = null;
+	}
+	
+	public Value setAttribute(String name, Value value) {
+		return attributes.put(name, value);
+	}
+	
+	public Value getAttribute(String name) {
+		return attributes.get(name);
+	}
+	
+	public Value removeAttribute(String name) {
+		return attributes.remove(name);
+	}
+	
+	public Map<String, Value> getAttributes() {
+		return attributes;
+	}
+	
+	public void setValueType(ValueType valueType) {
+		this.valueType = valueType;
+	}
+	
+	public ValueType getValueType() {
+		return valueType;
+	}
+	
+	public void setValue(Value value) {
+		this.value = value;
+	}
+	
+	public Value getValue() {
+		return value;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public String getDisplayName() {
+		return displayName;
+	}
+	
+	public void setDisplayName(String displayName) {
+		this.displayName = displayName;
+	}
+	
+	public Node getParent() {
+		return parent;
+	}
+	
+	public void setSerializable(boolean serializable) {
+		this.serializable = serializable;
+	}
+	
+	public boolean isSerializable() {
+		return serializable;
+	}
+	
+	public void setAction(Action action) {
+		this.action = action;
+	}
+	
+	public Action getAction() {
+		return action;
+	}
+	
+	public String getPath() {
+		return parent == null ? "" : parent.getPath() + "/" + name;
+	}
+
+}
@@ -0,0 +1,52 @@
+package org.dsa.iot.dslink.node;
+
+import org.dsa.iot.dslink.node.actions.Action;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueType;
+
+/* Stand-in for the SDK's node builder. */
+public class NodeBuilder {
+	
+	private final Node parent;
+	private final Node child;
+	
+	NodeBuilder(Node parent, String name) {
+		this.parent = parent;
+		this.child = new Node(name, parent, null);
+	}
+	
+	public NodeBuilder setValueType(ValueType valueType) {
+		child.setValueType(valueType);
+		return this;
+	}
+	
+	public NodeBuilder setValue(Value value) {
+		child.setValue(value);
+		return this;
+	}
+	
+	public NodeBuilder setAction(Action action) {
+		child.setAction(action);
+		return this;
+	}
+	
+	public NodeBuilder setSerializable(boolean serializable) {
+		child.setSerializable(serializable);
+		return this;
+	}
+	
+	public NodeBuilder setDisplayName(String displayName) {
+		child.setDisplayName(displayName);
+		return this;
+	}
+	
+	public NodeBuilder setAttribute(String name, Value value) {
+		child.setAttribute(name, value);
+		return this;
+	}
+	
+	public Node build() {
+		return parent.add(child);
+	}
+
+}
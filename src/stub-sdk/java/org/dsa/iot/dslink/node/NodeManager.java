@@ -0,0 +1,17 @@
+package org.dsa.iot.dslink.node;
+
+/* Stand-in for the SDK's node manager. Only Main uses it. */
+public class NodeManager {
+	
+	public NodeStringTuple getNode(String path) {
+		return null;
+	}
+	
+	public static class NodeStringTuple {
+		
+		public Node getNode() {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,5 @@
+package org.dsa.iot.dslink.node;
+
+public enum Permission {
+	NONE, READ, WRITE, CONFIG
+}
@@ -0,0 +1,32 @@
+package org.dsa.iot.dslink.node.actions;
+
+import org.dsa.iot.dslink.node.Permission;
+import org.dsa.iot.dslink.util.handler.Handler;
+
+/* Stand-in for the SDK's action. invoke() calls the handler directly, on the
+ * caller's thread, where the SDK would call it for an invocation from the broker. */
+public class Action {
+	
+	private final Handler<ActionResult> handler;
+	
+	public Action(Permission permission, Handler<ActionResult> handler) {
+		this.handler = handler;
+	}
+	
+	public Action addParameter(Parameter parameter) {
+		return this;
+	}
+	
+	public Action addResult(Parameter parameter) {
+		return this;
+	}
+	
+	public Action setResultType(ResultType resultType) {
+		return this;
+	}
+	
+	public void invoke(ActionResult result) {
+		handler.handle(result);
+	}
+
+}
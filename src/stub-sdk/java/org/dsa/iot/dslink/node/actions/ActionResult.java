@@ -0,0 +1,58 @@
+package org.dsa.iot.dslink.node.actions;
+
+import org.dsa.iot.dslink.methods.StreamState;
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.node.actions.table.Table;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueType;
+import org.dsa.iot.dslink.util.handler.Handler;
+import org.dsa.iot.dslink.util.json.JsonObject;
+
+/* Stand-in for the SDK's action result. The parameters are read from the "params"
+ * object of the invocation, as the SDK does. */
+public class ActionResult {
+	
+	private final Node node;
+	private final JsonObject request;
+	private final Table table = new Table();
+	
+	public ActionResult(Node node, JsonObject request) {
+		this.node = node;
+		this.request = request;
+	}
+	
+	public Value getParameter(String name) {
+		Object params = request.get("params");
+		Object o = params instanceof JsonObject ? ((JsonObject) params).get(name) : null;
+		if (o == null) return null;
+		if (o instanceof Number) return new Value((Number) o);
+		if (o instanceof Boolean) return new Value((Boolean) o);
+		return new Value(o.toString());
+	}
+	
+	public Value getParameter(String name, ValueType type) {
+		Value value = getParameter(name);
+		if (value == null) throw new RuntimeException("Missing parameter " + name);
+		return value;
+	}
+	
+	public Value getParameter(String name, Value defaultValue) {
+		Value value = getParameter(name);
+		return value == null ? defaultValue : value;
+	}
+	
+	public Table getTable() {
+		return table;
+	}
+	
+	public Node getNode() {
+		return node;
+	}
+	
+	public void setStreamState(StreamState state) {
+	}
+	
+	public void setCloseHandler(Handler<Void> handler) {
+	}
+
+}
@@ -0,0 +1,20 @@
+package org.dsa.iot.dslink.node.actions;
+
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueType;
+
+/* Stand-in for the SDK's action parameter. Nothing shows the parameters, so they
+ * aren't kept. */
+public class Parameter {
+	
+	public Parameter(String name, ValueType type) {
+	}
+	
+	public Parameter(String name, ValueType type, Value defaultValue) {
+	}
+	
+	public Parameter setDescription(String description) {
+		return this;
+	}
+
+}
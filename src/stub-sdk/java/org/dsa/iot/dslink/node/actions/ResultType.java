@@ -0,0 +1,5 @@
+package org.dsa.iot.dslink.node.actions;
+
+public enum ResultType {
+	VALUES, TABLE, STREAM
+}
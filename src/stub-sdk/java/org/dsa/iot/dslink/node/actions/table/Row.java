@@ -0,0 +1,28 @@
+package org.dsa.iot.dslink.node.actions.table;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.dsa.iot.dslink.node.value.Value;
+
+/* Stand-in for the SDK's table row. */
+public class Row {
+	
+	private final List<Value> values = new ArrayList<Value>();
+	
+	public static Row make(Value... values) {
+		Row row = new Row();
+		row.values.addAll(Arrays.asList(values));
+		return row;
+	}
+	
+	public void addValue(Value value) {
+		values.add(value);
+	}
+	
+	public List<Value> getValues() {
+		return values;
+	}
+
+}
@@ -0,0 +1,37 @@
+package org.dsa.iot.dslink.node.actions.table;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/* Stand-in for the SDK's result table. Rows are kept in memory instead of being
+ * streamed to the broker. */
+public class Table {
+	
+	public enum Mode {
+		APPEND, REFRESH, STREAM
+	}
+	
+	private final List<Row> rows = new ArrayList<Row>();
+	
+	public synchronized void addRow(Row row) {
+		rows.add(row);
+	}
+	
+	public synchronized void addBatchRows(List<Row> batch) {
+		rows.addAll(batch);
+	}
+	
+	public synchronized List<Row> getRows() {
+		return new ArrayList<Row>(rows);
+	}
+	
+	public void setMode(Mode mode) {
+	}
+	
+	public void close() {
+	}
+	
+	public void sendReady() {
+	}
+
+}
@@ -0,0 +1,45 @@
+package org.dsa.iot.dslink.node.value;
+
+/* Stand-in for the SDK's value. */
+public class Value {
+	
+	private final Object value;
+	private final ValueType type;
+	
+	public Value(Number value) {
+		this.value = value;
+		this.type = ValueType.NUMBER;
+	}
+	
+	public Value(String value) {
+		this.value = value;
+		this.type = ValueType.STRING;
+	}
+	
+	public Value(Boolean value) {
+		this.value = value;
+		this.type = ValueType.BOOL;
+	}
+	
+	public Number getNumber() {
+		return value instanceof Number ? (Number) value : null;
+	}
+	
+	public String getString() {
+		return value instanceof String ? (String) value : null;
+	}
+	
+	public Boolean getBool() {
+		return value instanceof Boolean ? (Boolean) value : null;
+	}
+	
+	public ValueType getType() {
+		return type;
+	}
+	
+	@Override
+	public String toString() {
+		return String.valueOf(value);
+	}
+
+}
@@ -0,0 +1,33 @@
+package org.dsa.iot.dslink.node.value;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/* Stand-in for the SDK's value type. */
+public class ValueType {
+	
+	public static final ValueType NUMBER = new ValueType("number");
+	public static final ValueType STRING = new ValueType("string");
+	public static final ValueType BOOL = new ValueType("bool");
+	public static final ValueType TIME = new ValueType("time");
+	public static final ValueType DYNAMIC = new ValueType("dynamic");
+	
+	private final String name;
+	
+	private ValueType(String name) {
+		this.name = name;
+	}
+	
+	public static ValueType makeEnum(Collection<String> values) {
+		return new ValueType("enum" + values);
+	}
+	
+	public static ValueType makeEnum(String... values) {
+		return makeEnum(Arrays.asList(values));
+	}
+	
+	public String toJsonString() {
+		return name;
+	}
+
+}
@@ -0,0 +1,23 @@
+package org.dsa.iot.dslink.util;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+
+/* Stand-in for the SDK's shared thread pools: a daemon pool with one thread per
+ * processor. */
+public class Objects {
+	
+	private static final ScheduledThreadPoolExecutor DAEMON_POOL = new ScheduledThreadPoolExecutor(
+			Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "daemon-pool");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+	
+	public static ScheduledThreadPoolExecutor getDaemonThreadPool() {
+		return DAEMON_POOL;
+	}
+
+}
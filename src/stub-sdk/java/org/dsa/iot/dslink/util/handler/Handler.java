@@ -0,0 +1,7 @@
+package org.dsa.iot.dslink.util.handler;
+
+public interface Handler<T> {
+	
+	void handle(T event);
+
+}
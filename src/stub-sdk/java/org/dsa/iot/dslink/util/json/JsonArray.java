@@ -0,0 +1,24 @@
+package org.dsa.iot.dslink.util.json;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/* Stand-in for the SDK's JSON array. */
+public class JsonArray {
+	
+	private final List<Object> list = new ArrayList<Object>();
+	
+	public int size() {
+		return list.size();
+	}
+	
+	public Object get(int index) {
+		return list.get(index);
+	}
+	
+	public JsonArray add(Object value) {
+		list.add(value);
+		return this;
+	}
+
+}
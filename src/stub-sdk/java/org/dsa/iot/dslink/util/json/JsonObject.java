@@ -0,0 +1,95 @@
+package org.dsa.iot.dslink.util.json;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/* Stand-in for the SDK's JSON object, with a parser for the objects, arrays,
+ * strings without escapes, and numbers that the link's own JSON attributes hold. */
+public class JsonObject implements Iterable<Map.Entry<String, Object>> {
+	
+	private final Map<String, Object> map = new LinkedHashMap<String, Object>();
+	
+	public JsonObject() {
+	}
+	
+	public JsonObject(String json) {
+		int[] pos = {0};
+		map.putAll(((JsonObject) parse(json, pos)).map);
+	}
+	
+	private static Object parse(String s, int[] pos) {
+		skipSpace(s, pos);
+		char c = s.charAt(pos[0]);
+		if (c == '{') {
+			pos[0]++;
+			JsonObject obj = new JsonObject();
+			skipSpace(s, pos);
+			if (s.charAt(pos[0]) == '}') {
+				pos[0]++;
+				return obj;
+			}
+			while (true) {
+				String key = (String) parse(s, pos);
+				skipSpace(s, pos);
+				pos[0]++; // ':'
+				obj.map.put(key, parse(s, pos));
+				skipSpace(s, pos);
+				if (s.charAt(pos[0]++) == '}') return obj;
+			}
+		}
+		if (c == '[') {
+			pos[0]++;
+			JsonArray arr = new JsonArray();
+			skipSpace(s, pos);
+			if (s.charAt(pos[0]) == ']') {
+				pos[0]++;
+				return arr;
+			}
+			while (true) {
+				arr.add(parse(s, pos));
+				skipSpace(s, pos);
+				if (s.charAt(pos[0]++) == ']') return arr;
+			}
+		}
+		if (c == '"') {
+			int end = s.indexOf('"', pos[0] + 1);
+			String str = s.substring(pos[0] + 1, end);
+			pos[0] = end + 1;
+			return str;
+		}
+		int start = pos[0];
+		while (pos[0] < s.length() && "-+.eE0123456789".indexOf(s.charAt(pos[0])) >= 0) pos[0]++;
+		String num = s.substring(start, pos[0]);
+		if (num.isEmpty()) throw new RuntimeException("Bad JSON at " + start);
+		if (num.contains(".")) return Double.valueOf(num);
+		return Integer.valueOf(num);
+	}
+	
+	private static void skipSpace(String s, int[] pos) {
+		while (pos[0] < s.length() && Character.isWhitespace(s.charAt(pos[0]))) pos[0]++;
+	}
+	
+	public Map<String, Object> getMap() {
+		return map;
+	}
+	
+	public Object get(String key) {
+		return map.get(key);
+	}
+	
+	public JsonObject put(String key, Object value) {
+		map.put(key, value);
+		return this;
+	}
+	
+	public Iterator<Map.Entry<String, Object>> iterator() {
+		return map.entrySet().iterator();
+	}
+	
+	@Override
+	public String toString() {
+		return map.toString();
+	}
+
+}